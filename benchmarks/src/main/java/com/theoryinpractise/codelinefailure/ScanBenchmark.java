@@ -0,0 +1,189 @@
+package com.theoryinpractise.codelinefailure;
+
+import org.apache.maven.enforcer.rule.api.EnforcerRuleException;
+import org.apache.maven.enforcer.rule.api.EnforcerRuleHelper;
+import org.apache.maven.model.Build;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.apache.maven.project.MavenProject;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Proxy;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Scan throughput, in files per second, for each check on its own and for a whole rule execution.
+ *
+ * <p>The single check benchmarks take the generated files in turn, one per invocation, reading each from disk afresh,
+ * so their scores are files per second. Run with {@code -prof gc} to report the allocation rate alongside.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScanBenchmark {
+  @Param("500")
+  public int fileCount;
+
+  @Param({"100", "1000"})
+  public int linesPerFile;
+
+  @Param("4")
+  public int depth;
+
+  @Param("20")
+  public int importCount;
+
+  @Param("10")
+  public int privateMembers;
+
+  private Path basedir;
+
+  private List<File> files;
+
+  private LinePatterns linePatterns;
+
+  private ImportBans importBans;
+
+  private CodelineFailureRule rule;
+
+  private EnforcerRuleHelper helper;
+
+  private int next;
+
+  @Setup(Level.Trial)
+  public void generate() throws Exception {
+    basedir = Files.createTempDirectory("codeline-benchmark");
+    files = new SourceTreeGenerator(fileCount, linesPerFile, depth, importCount, privateMembers).generate(basedir);
+    linePatterns = LinePatterns.compile(SourceTreeGenerator.PATTERNS);
+    importBans = ImportBans.compile(SourceTreeGenerator.BANNED_CLASSES);
+
+    // configured as Maven would, by setting the fields; every execution is a cold scan on a single thread
+    rule = new CodelineFailureRule();
+    configure("patterns", SourceTreeGenerator.PATTERNS);
+    configure("classes", SourceTreeGenerator.BANNED_CLASSES);
+    configure("checkPrivates", Boolean.TRUE);
+    configure("threads", 1);
+    configure("cacheResults", Boolean.FALSE);
+    configure("parseCacheSize", 0L);
+
+    helper = projectHelper(basedir);
+  }
+
+  @TearDown(Level.Trial)
+  public void delete() throws IOException {
+    try (Stream<Path> paths = Files.walk(basedir)) {
+      paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+    }
+  }
+
+  @Benchmark
+  public Object checkPatterns() {
+    return rule.checkPatterns(new SourceFile(nextFile()), linePatterns);
+  }
+
+  @Benchmark
+  public Object checkClasses() {
+    return rule.checkClasses(new SourceFile(nextFile()), importBans);
+  }
+
+  @Benchmark
+  public Object checkUnusedPrivates() {
+    return CheckUnusedPrivateFields.checkUnusedPrivates(new SourceFile(nextFile()));
+  }
+
+  /**
+   * Scans the whole tree. The primary score is executions per second; the {@code files} counter gives files per second.
+   */
+  @Benchmark
+  public void execute(FileCounter counter, Blackhole blackhole) {
+    try {
+      rule.execute(helper);
+    } catch (EnforcerRuleException e) {
+      // the generated tree always has violations
+      blackhole.consume(e);
+    }
+    counter.files += fileCount;
+  }
+
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.OPERATIONS)
+  public static class FileCounter {
+    public long files;
+
+    @Setup(Level.Iteration)
+    public void reset() {
+      files = 0;
+    }
+  }
+
+  private File nextFile() {
+    File file = files.get(next);
+    next = (next + 1) % files.size();
+    return file;
+  }
+
+  private void configure(String name, Object value) throws ReflectiveOperationException {
+    Field field = CodelineFailureRule.class.getDeclaredField(name);
+    field.setAccessible(true);
+    field.set(rule, value);
+  }
+
+  private static EnforcerRuleHelper projectHelper(Path basedir) {
+    Build build = new Build();
+    build.setSourceDirectory(basedir.resolve("src/main/java").toString());
+    build.setTestSourceDirectory(basedir.resolve("src/test/java").toString());
+    build.setDirectory(basedir.resolve("target").toString());
+    MavenProject project = new MavenProject();
+    project.setBuild(build);
+    project.setFile(basedir.resolve("pom.xml").toFile());
+
+    SystemStreamLog log = new SystemStreamLog() {
+      @Override
+      public boolean isWarnEnabled() {
+        return false;
+      }
+
+      @Override
+      public void warn(CharSequence content) {}
+    };
+
+    return (EnforcerRuleHelper) Proxy.newProxyInstance(
+        ScanBenchmark.class.getClassLoader(), new Class<?>[] {EnforcerRuleHelper.class}, (proxy, method, args) -> {
+          switch (method.getName()) {
+            case "getLog":
+              return log;
+            case "evaluate":
+              return "${project}".equals(args[0]) ? project : null;
+            case "getCache":
+              return ((Supplier<?>) args[1]).get();
+            default:
+              throw new UnsupportedOperationException(method.getName());
+          }
+        });
+  }
+}
@@ -0,0 +1,126 @@
+package com.theoryinpractise.codelinefailure;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Writes a synthetic Maven source tree to benchmark against.
+ *
+ * <p>Files are spread round-robin over the leaves of a package tree {@code depth} levels deep, and every tenth file is
+ * a test. Each file has {@code importCount} imports, one in five of them banned by {@link #BANNED_CLASSES}, and
+ * {@code privateMembers} private fields and methods, half of which are never used. The class is padded with ordinary
+ * methods to roughly {@code linesPerFile} lines, with a {@link #PATTERNS} match every fifty lines. The output only
+ * depends on the arguments, so runs with the same parameters scan identical trees.
+ */
+public class SourceTreeGenerator {
+  public static final List<String> PATTERNS = Arrays.asList("System\\.out\\.println", "printStackTrace\\(\\)", "(?i)fixme");
+
+  public static final List<String> BANNED_CLASSES = Arrays.asList("java\\.util\\.Date", "sun\\.misc\\..*", "org.junit.*");
+
+  private static final String[] ALLOWED_IMPORTS = {
+      "java.util.List", "java.util.Map", "java.util.Set", "java.util.Optional", "java.util.function.Function",
+      "java.io.File", "java.io.IOException", "java.nio.file.Path", "java.time.Instant", "java.math.BigDecimal"};
+
+  private static final String[] BANNED_IMPORTS = {"java.util.Date", "sun.misc.Unsafe", "org.junit.Test"};
+
+  private final int fileCount;
+
+  private final int linesPerFile;
+
+  private final int depth;
+
+  private final int importCount;
+
+  private final int privateMembers;
+
+  public SourceTreeGenerator(int fileCount, int linesPerFile, int depth, int importCount, int privateMembers) {
+    this.fileCount = fileCount;
+    this.linesPerFile = linesPerFile;
+    this.depth = depth;
+    this.importCount = importCount;
+    this.privateMembers = privateMembers;
+  }
+
+  /**
+   * Generates the tree under {@code basedir}, returning every file written.
+   */
+  public List<File> generate(Path basedir) throws IOException {
+    Random random = new Random(fileCount * 31L + linesPerFile);
+    List<File> files = new ArrayList<>();
+    for (int i = 0; i < fileCount; i++) {
+      boolean test = i % 10 == 9;
+      String packageName = packageName(i);
+      String className = "Generated" + i + (test ? "Test" : "");
+      Path dir = basedir.resolve(test ? "src/test/java" : "src/main/java").resolve(packageName.replace('.', '/'));
+      Files.createDirectories(dir);
+      Path file = dir.resolve(className + ".java");
+      Files.write(file, source(packageName, className, random).getBytes(StandardCharsets.UTF_8));
+      files.add(file.toFile());
+    }
+    return files;
+  }
+
+  private String packageName(int index) {
+    StringBuilder packageName = new StringBuilder("com.example.generated");
+    int leaf = index % Math.max(1, 1 << Math.min(depth, 6));
+    for (int level = 0; level < depth; level++) {
+      packageName.append(".p").append((leaf >> (level % 6)) & 1);
+    }
+    return packageName.toString();
+  }
+
+  private String source(String packageName, String className, Random random) {
+    StringBuilder out = new StringBuilder();
+    out.append("/*\n * Generated for benchmarking.\n */\n");
+    out.append("package ").append(packageName).append(";\n\n");
+    for (int i = 0; i < importCount; i++) {
+      if (i % 5 == 4) {
+        out.append("import ").append(BANNED_IMPORTS[random.nextInt(BANNED_IMPORTS.length)]).append(";\n");
+      } else {
+        out.append("import ").append(ALLOWED_IMPORTS[i % ALLOWED_IMPORTS.length]).append(";\n");
+      }
+    }
+    out.append("\npublic class ").append(className).append(" {\n");
+
+    for (int i = 0; i < privateMembers; i++) {
+      out.append("  private int field").append(i).append(" = ").append(random.nextInt(100)).append(";\n");
+    }
+    for (int i = 0; i < privateMembers; i++) {
+      out.append("\n  private int helper").append(i).append("(int value) {\n");
+      out.append("    return value * ").append(random.nextInt(10) + 1).append(";\n");
+      out.append("  }\n");
+    }
+    out.append("\n  public int usesHalfTheMembers(int value) {\n");
+    out.append("    int total = value;\n");
+    for (int i = 0; i < privateMembers / 2; i++) {
+      out.append("    total += field").append(i).append(" + helper").append(i).append("(total);\n");
+    }
+    out.append("    return total;\n");
+    out.append("  }\n");
+
+    int lines = (int) out.chars().filter(c -> c == '\n').count();
+    for (int method = 0; lines < linesPerFile; method++) {
+      out.append("\n  public String method").append(method).append("(String input) {\n");
+      out.append("    StringBuilder result = new StringBuilder(input);\n");
+      for (int i = 0; i < 8; i++) {
+        if ((lines + i) % 50 == 0) {
+          out.append("    System.out.println(result);\n");
+        } else {
+          out.append("    result.append(\"").append(Integer.toHexString(random.nextInt())).append("\").reverse();\n");
+        }
+      }
+      out.append("    return result.toString();\n");
+      out.append("  }\n");
+      lines += 13;
+    }
+    out.append("}\n");
+    return out.toString();
+  }
+}
@@ -0,0 +1,448 @@
+package com.theoryinpractise.codelinefailure;
+
+import io.vavr.Function1;
+import io.vavr.collection.List;
+import io.vavr.control.Validation;
+
+import org.apache.maven.enforcer.rule.api.EnforcerRuleException;
+import org.apache.maven.monitor.logging.DefaultLog;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.lang.reflect.Field;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the rule's checks continuously outside of Maven: every file below the source roots is checked once, then the
+ * roots are watched and only files that change are checked again, with compiled checks, parsed units and the
+ * project-wide reference index kept in memory between changes.
+ *
+ * <p>After each round of changes the current violations are written as JSON Lines, and optionally SARIF, replacing the
+ * previous files atomically. With {@code --port}, any connection to that port on the loopback address is sent the
+ * latest JSON Lines and closed, so a pre-commit hook can run {@code nc localhost <port>}.
+ *
+ * <p>Checks are configured with the same names as the rule in a pom, given as {@code name=value}; list settings take
+ * one value per argument and may be repeated, as in {@code patterns=System\.out patterns=printStackTrace}.
+ */
+public class CodelineDaemon implements Closeable {
+  private static final String USAGE = "Usage: CodelineDaemon [--basedir <dir>] [--output <file.jsonl>] [--sarif <file>]"
+      + " [--port <port>] [<setting>=<value>...] [<source root>...]";
+
+  private static final long QUIET_PERIOD_MILLIS = 20;
+
+  private final Log log;
+
+  private final File basedir;
+
+  private final List<File> roots;
+
+  private final SourceFilter filter;
+
+  private final Function1<File, List<Validation<EnforcerRuleException, File>>> process;
+
+  private final ReferenceIndex referenceIndex;
+
+  private final File output;
+
+  private final File sarifOutput;
+
+  private final ForkJoinPool pool;
+
+  private final WatchService watchService;
+
+  private final CountDownLatch stopped = new CountDownLatch(1);
+
+  private volatile boolean running;
+
+  private final Map<WatchKey, Path> watchedDirectories = new ConcurrentHashMap<>();
+
+  private final Map<File, List<Validation<EnforcerRuleException, File>>> results = new ConcurrentHashMap<>();
+
+  private volatile byte[] snapshot = new byte[0];
+
+  private ServerSocket server;
+
+  CodelineDaemon(Log log, File basedir, CodelineFailureRule rule, List<File> roots, File output, File sarifOutput)
+      throws IOException, EnforcerRuleException {
+    this.log = log;
+    this.basedir = basedir;
+    this.roots = roots;
+    this.output = output;
+    this.sarifOutput = sarifOutput;
+    this.filter = rule.sourceFilter();
+    Path indexFile = new File(output.getAbsoluteFile().getParentFile(), "daemon-references.index").toPath();
+    this.referenceIndex = rule.usesReferenceIndex()
+        ? ReferenceIndex.load(log, indexFile, CodelineFailureRule.pluginVersion() + "/daemon")
+        : null;
+    this.process = rule.prepare(log, new ScanService(), roots, referenceIndex);
+    int threads = rule.threadCount();
+    this.pool = threads > 1 ? new ForkJoinPool(threads) : null;
+    this.watchService = FileSystems.getDefault().newWatchService();
+  }
+
+  public static void main(String[] args) throws Exception {
+    int level = Boolean.getBoolean("codeline.debug") ? Logger.LEVEL_DEBUG : Logger.LEVEL_INFO;
+    Log log = new SynchronizedLog(new DefaultLog(new ConsoleLogger(level, "codeline-daemon")));
+    File basedir = new File(".");
+    File output = null;
+    File sarifOutput = null;
+    Integer port = null;
+    CodelineFailureRule rule = new CodelineFailureRule();
+    java.util.List<String> rootNames = new ArrayList<>();
+
+    for (int i = 0; i < args.length; i++) {
+      String arg = args[i];
+      if (arg.startsWith("--") && i + 1 == args.length) {
+        throw new IllegalArgumentException(arg + " needs a value\n" + USAGE);
+      }
+      if ("--basedir".equals(arg)) {
+        basedir = new File(args[++i]);
+      } else if ("--output".equals(arg)) {
+        output = new File(args[++i]);
+      } else if ("--sarif".equals(arg)) {
+        sarifOutput = new File(args[++i]);
+      } else if ("--port".equals(arg)) {
+        port = Integer.valueOf(args[++i]);
+      } else if (arg.contains("=")) {
+        configure(rule, arg.substring(0, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+      } else {
+        rootNames.add(arg);
+      }
+    }
+
+    File base = basedir.getCanonicalFile();
+    List<File> roots = rootNames.isEmpty()
+        ? List.of(new File(base, "src/main/java"), new File(base, "src/test/java"))
+        : List.ofAll(rootNames).map(name -> resolve(base, name));
+    File jsonLines = output != null ? resolve(base, output.getPath()) : new File(base, "target/codeline-enforcer/daemon.jsonl");
+
+    CodelineDaemon daemon = new CodelineDaemon(
+        log, base, rule, roots, jsonLines, sarifOutput != null ? resolve(base, sarifOutput.getPath()) : null);
+    Runtime.getRuntime().addShutdownHook(new Thread(daemon::close));
+    if (port != null) {
+      daemon.serve(port);
+    }
+    daemon.run();
+  }
+
+  /**
+   * Sets the rule setting {@code name} as Maven would from the pom, appending to list settings.
+   */
+  @SuppressWarnings("unchecked")
+  static void configure(CodelineFailureRule rule, String name, String value) throws ReflectiveOperationException {
+    Field field;
+    try {
+      field = CodelineFailureRule.class.getDeclaredField(name);
+    } catch (NoSuchFieldException e) {
+      throw new IllegalArgumentException("Unknown setting " + name + "\n" + USAGE, e);
+    }
+    field.setAccessible(true);
+    Class<?> type = field.getType();
+    if (type == java.util.List.class) {
+      ((java.util.List<String>) field.get(rule)).add(value);
+    } else if (type == Boolean.class) {
+      field.set(rule, Boolean.valueOf(value));
+    } else if (type == Integer.class) {
+      field.set(rule, Integer.valueOf(value));
+    } else if (type == Long.class) {
+      field.set(rule, Long.valueOf(value));
+    } else if (type == String.class) {
+      field.set(rule, value);
+    } else {
+      throw new IllegalArgumentException("Setting " + name + " can't be given on the command line");
+    }
+  }
+
+  private static File resolve(File basedir, String path) {
+    File file = new File(path);
+    return file.isAbsolute() ? file : new File(basedir, path);
+  }
+
+  /**
+   * Serves the latest JSON Lines to every connection on {@code port} of the loopback address, or on a free port when it
+   * is 0. Returns the port listened on.
+   */
+  public int serve(int port) throws IOException {
+    server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+    Thread acceptor = new Thread(() -> {
+      while (!server.isClosed()) {
+        try (Socket socket = server.accept(); OutputStream out = socket.getOutputStream()) {
+          out.write(snapshot);
+        } catch (IOException e) {
+          if (!server.isClosed()) {
+            log.debug("Unable to send code enforcer results: " + e.getMessage());
+          }
+        }
+      }
+    }, "codeline-daemon-server");
+    acceptor.setDaemon(true);
+    acceptor.start();
+    log.info("Serving code enforcer results on " + server.getLocalSocketAddress());
+    return server.getLocalPort();
+  }
+
+  /**
+   * Checks every file, then re-checks files as they change until the daemon is closed.
+   */
+  public void run() throws IOException {
+    running = true;
+    try {
+      checkAll();
+      while (true) {
+        Set<Path> changed = awaitChanges();
+        long start = System.nanoTime();
+        for (Path path : changed) {
+          recheck(path.toFile());
+        }
+        int violations = publish();
+        log.info(String.format(
+            "Re-checked %d changed files in %d ms, %d violations",
+            changed.size(),
+            TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+            violations));
+      }
+    } catch (ClosedWatchServiceException | InterruptedException e) {
+      log.debug("Stopped watching for changes");
+    } finally {
+      stopped.countDown();
+    }
+  }
+
+  /**
+   * Watches every root and checks every file below them, replacing any earlier results and forgetting the references
+   * of files that have gone.
+   */
+  void checkAll() throws IOException {
+    long start = System.nanoTime();
+    java.util.List<File> files = new ArrayList<>();
+    for (File root : roots.distinct()) {
+      files.addAll(watch(root.toPath(), root.toPath()));
+    }
+    Set<File> gone = new HashSet<>(results.keySet());
+    gone.removeAll(files);
+    results.clear();
+    if (referenceIndex != null) {
+      gone.forEach(referenceIndex::forget);
+    }
+    if (pool != null) {
+      pool.submit(() -> files.parallelStream().forEach(file -> results.put(file, process.apply(file)))).join();
+    } else {
+      files.forEach(file -> results.put(file, process.apply(file)));
+    }
+    int violations = publish();
+    log.info(String.format(
+        "Checked %d files in %d ms, %d violations, watching for changes",
+        files.size(),
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start),
+        violations));
+  }
+
+  /**
+   * Registers {@code dir} and every directory below it that the filter doesn't prune, returning the included files.
+   */
+  private java.util.List<File> watch(Path root, Path dir) throws IOException {
+    java.util.List<File> files = new ArrayList<>();
+    if (!Files.isDirectory(dir)) {
+      return files;
+    }
+    Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attrs) throws IOException {
+        if (!directory.equals(root) && filter.isPruned(root.relativize(directory))) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        WatchKey key = directory.register(
+            watchService,
+            StandardWatchEventKinds.ENTRY_CREATE,
+            StandardWatchEventKinds.ENTRY_DELETE,
+            StandardWatchEventKinds.ENTRY_MODIFY);
+        watchedDirectories.put(key, directory);
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        if (attrs.isRegularFile() && filter.isIncluded(root.relativize(file))) {
+          files.add(file.toFile());
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(Path file, IOException e) {
+        log.debug("Unable to read " + file + ": " + e.getMessage());
+        return FileVisitResult.CONTINUE;
+      }
+    });
+    return files;
+  }
+
+  /**
+   * Waits for a change, then gathers further changes until none arrive for a moment, so a save touching several files
+   * is re-checked once. Returns the included files that were created, changed or deleted.
+   */
+  private Set<Path> awaitChanges() throws IOException, InterruptedException {
+    Set<Path> changed = new TreeSet<>();
+    WatchKey key = watchService.take();
+    while (key != null) {
+      Path dir = watchedDirectories.get(key);
+      if (dir != null) {
+        Path root = rootOf(dir);
+        for (WatchEvent<?> event : key.pollEvents()) {
+          if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+            log.info("Missed some changes, checking every file again");
+            checkAll();
+            continue;
+          }
+          Path path = dir.resolve((Path) event.context());
+          if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+            if (!filter.isPruned(root.relativize(path))) {
+              for (File file : watch(root, path)) {
+                changed.add(file.toPath());
+              }
+            }
+          } else if (filter.isIncluded(root.relativize(path)) || results.containsKey(path.toFile())) {
+            changed.add(path);
+          }
+        }
+      }
+      if (!key.reset()) {
+        watchedDirectories.remove(key);
+        if (dir != null) {
+          forgetDirectory(dir, changed);
+        }
+      }
+      key = watchService.poll(QUIET_PERIOD_MILLIS, TimeUnit.MILLISECONDS);
+    }
+    return changed;
+  }
+
+  private Path rootOf(Path dir) {
+    for (File root : roots) {
+      if (dir.startsWith(root.toPath())) {
+        return root.toPath();
+      }
+    }
+    return dir;
+  }
+
+  /**
+   * Marks every file checked below {@code dir}, which no longer exists, as changed so its results are dropped.
+   */
+  private void forgetDirectory(Path dir, Set<Path> changed) {
+    for (File file : results.keySet()) {
+      if (file.toPath().startsWith(dir)) {
+        changed.add(file.toPath());
+      }
+    }
+  }
+
+  private void recheck(File file) {
+    if (file.isFile()) {
+      results.put(file, process.apply(file));
+    } else {
+      results.remove(file);
+      if (referenceIndex != null) {
+        referenceIndex.forget(file);
+      }
+    }
+  }
+
+  /**
+   * Writes the current violations, in file order, to the outputs and to the snapshot served on the socket, returning how
+   * many there are.
+   */
+  int publish() {
+    StringWriter jsonLines = new StringWriter();
+    StringWriter sarif = sarifOutput != null ? new StringWriter() : null;
+    ViolationReporter reporter =
+        ViolationReporter.writingTo(log, basedir, sarif, jsonLines, 0, CodelineFailureRule.pluginVersion());
+    for (List<Validation<EnforcerRuleException, File>> fileResults : new TreeMap<>(results).values()) {
+      reporter.retain(fileResults);
+    }
+    if (referenceIndex != null) {
+      reporter.retain(referenceIndex.unusedMethods(log));
+    }
+    reporter.close();
+
+    snapshot = jsonLines.toString().getBytes(StandardCharsets.UTF_8);
+    replace(output, snapshot);
+    if (sarifOutput != null) {
+      replace(sarifOutput, sarif.toString().getBytes(StandardCharsets.UTF_8));
+    }
+    return reporter.total();
+  }
+
+  private void replace(File file, byte[] content) {
+    try {
+      Path target = file.getAbsoluteFile().toPath();
+      Files.createDirectories(target.getParent());
+      Path temp = Files.createTempFile(target.getParent(), target.getFileName().toString(), ".tmp");
+      Files.write(temp, content);
+      Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      log.warn("Unable to write code enforcer results to " + file + ": " + e.getMessage());
+    }
+  }
+
+  /**
+   * Stops watching for changes and waits for any round of checks in progress to finish, before saving the reference
+   * index.
+   */
+  @Override
+  public void close() {
+    try {
+      watchService.close();
+      if (server != null) {
+        server.close();
+      }
+    } catch (IOException e) {
+      log.debug("Unable to stop cleanly: " + e.getMessage());
+    }
+    if (running) {
+      try {
+        stopped.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+    if (pool != null) {
+      pool.shutdown();
+    }
+    if (referenceIndex != null) {
+      referenceIndex.save(log);
+    }
+  }
+}
@@ -1,34 +1,41 @@
 package com.theoryinpractise.codelinefailure;
 
-import com.github.javaparser.JavaParser;
-import com.github.javaparser.ParseResult;
-import com.github.javaparser.Position;
-import com.github.javaparser.ast.CompilationUnit;
-import com.github.javaparser.ast.ImportDeclaration;
+import com.github.javaparser.ParserConfiguration;
 import com.github.javaparser.ast.Node;
 import com.github.javaparser.ast.body.FieldDeclaration;
 import com.github.javaparser.ast.body.MethodDeclaration;
+import com.google.common.hash.Hashing;
 import io.vavr.Function1;
 import io.vavr.collection.List;
+import io.vavr.collection.Map;
+import io.vavr.control.Option;
 import io.vavr.control.Validation;
 import org.apache.maven.enforcer.rule.api.EnforcerRule;
 import org.apache.maven.enforcer.rule.api.EnforcerRuleException;
 import org.apache.maven.enforcer.rule.api.EnforcerRuleHelper;
+import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.project.MavenProject;
 import org.codehaus.plexus.component.configurator.expression.ExpressionEvaluationException;
-import ru.lanwen.verbalregex.VerbalExpression;
 
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
-import java.io.LineNumberReader;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
-import java.util.function.Predicate;
-import java.util.regex.Pattern;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
-import static com.theoryinpractise.codelinefailure.CheckUnusedPrivateFields.checkUnusedPrivates;
 import static io.vavr.control.Validation.invalid;
 import static io.vavr.control.Validation.valid;
 
@@ -37,181 +44,730 @@ public class CodelineFailureRule implements EnforcerRule {
 
   private java.util.List<String> classes = new ArrayList<>();
 
+  private java.util.List<String> bannedMethodCalls = new ArrayList<>();
+
+  private java.util.List<String> bannedConstructors = new ArrayList<>();
+
+  private java.util.List<String> bannedAnnotations = new ArrayList<>();
+
+  private java.util.List<String> bannedFieldTypes = new ArrayList<>();
+
   private Boolean checkPrivates = Boolean.FALSE;
 
+  private Boolean projectWideUnused = Boolean.FALSE;
+
+  private Integer threads;
+
+  private String encoding;
+
+  private Boolean cacheResults = Boolean.TRUE;
+
+  private Long parseCacheSize = ParseCache.DEFAULT_MAX_WEIGHT;
+
+  private String changedSince;
+
+  private Boolean reportMetrics = Boolean.FALSE;
+
+  private String metricsFile;
+
+  private String sarifFile;
+
+  private String jsonLinesFile;
+
+  private Integer consoleViolationLimit = 1000;
+
+  private java.util.List<String> includes = new ArrayList<>();
+
+  private java.util.List<String> excludes = new ArrayList<>();
+
+  private java.util.List<String> sourceRoots = new ArrayList<>();
+
+  private Boolean preScanReactor = Boolean.FALSE;
+
+  private Long maxFileSize = ScanLimits.DEFAULT_MAX_FILE_SIZE;
+
+  private Long maxParsedFileSize = ScanLimits.DEFAULT_MAX_PARSED_FILE_SIZE;
+
+  private Boolean skipBinaryFiles = Boolean.TRUE;
+
+  private Integer fileTimeBudgetMillis = ScanLimits.DEFAULT_TIME_BUDGET_MILLIS;
+
   private Log log;
 
-  private static final VerbalExpression unacceptableFiles =
-      VerbalExpression.regex().startOfLine().oneOf("\\..*", "#.*", ".*(\\.orig)", ".*(\\.swp)").endOfLine().build();
+  private ScanMetrics scanMetrics = ScanMetrics.DISABLED;
+
+  private ScanLimits scanLimits;
+
+  private Charset resolvedCharset;
 
-  private static Predicate<File> fileIsAcceptable = file -> !unacceptableFiles.testExact(file.getName());
 
   @Override
   public void execute(EnforcerRuleHelper helper) throws EnforcerRuleException {
-    log = helper.getLog();
+    log = new SynchronizedLog(helper.getLog());
+
+    int threadCount = threadCount();
+    ForkJoinPool pool = threadCount > 1 ? new ForkJoinPool(threadCount) : null;
 
     try {
       MavenProject project = (MavenProject) helper.evaluate("${project}");
-      File srcDir = new File(project.getBuild().getSourceDirectory());
-      File testSrcDir = new File(project.getBuild().getTestSourceDirectory());
+      MavenSession session = (MavenSession) helper.evaluate("${session}");
+      ScanService service = ScanService.forSession(session);
+      List<File> roots = moduleRoots(project);
+      SourceFilter filter = SourceFilter.compile(includes, excludes);
+      Charset charset = sourceCharset(project);
+      resolvedCharset = charset;
+      String fingerprint = configurationFingerprint(charset.name());
+      scanMetrics = reportMetrics || metricsFile != null ? ScanMetrics.start() : ScanMetrics.DISABLED;
+      scanLimits = new ScanLimits(log, maxFileSize, maxParsedFileSize, skipBinaryFiles, fileTimeBudgetMillis);
+
+      List<SourceCheck> checks = buildChecks(service, scanMetrics);
+      if (checks.isEmpty()) {
+        log.debug("No code enforcer checks configured");
+        return;
+      }
+
+      ResultCache cache = cacheResults ? service.resultCache(log, workFile(project, "results.cache").toPath(), fingerprint) : null;
+
+      ReferenceIndex referenceIndex = checkPrivates && projectWideUnused
+          ? ReferenceIndex.load(log, workFile(project, "references.index").toPath(), pluginVersion() + "/" + charset.name())
+          : null;
+
+      ParserConfiguration parserConfiguration = service.parserConfiguration(roots);
+
+      ParseCache parseCache = parseCacheSize > 0 ? service.parseCache(parseCacheSize) : null;
+
+      Function1<File, List<Validation<EnforcerRuleException, File>>> process =
+          buildProcess(charset, parserConfiguration, parseCache, checks, cache, referenceIndex, scanLimits, scanMetrics);
+
+      service.moduleStarted(project.getBasedir());
+      if (preScanReactor && session != null && referenceIndex == null && changedSince == null && service.claimPreScan()) {
+        preScan(session, service, filter, parseCache, threadCount);
+      }
+      process = service.preScanned(fingerprint, process, scanMetrics);
 
-      Predicate<String> classesPredicate = buildClassPredicate(List.ofAll(classes));
+      if (changedSince != null) {
+        process = onlyChangedFiles(project, process, cache);
+      }
 
-      List<Validation<EnforcerRuleException, File>> validations =
-          validateFiles(srcDir, classesPredicate).appendAll(validateFiles(testSrcDir, classesPredicate));
+      // without a report to fall back on, every violation has to be shown on the console
+      boolean reportConfigured = sarifFile != null || jsonLinesFile != null;
+      ViolationReporter reporter = ViolationReporter.open(
+          log,
+          project.getBasedir(),
+          buildFile(project, sarifFile),
+          buildFile(project, jsonLinesFile),
+          reportConfigured ? consoleViolationLimit : Integer.MAX_VALUE,
+          pluginVersion());
+      try {
+        Function1<File, List<Validation<EnforcerRuleException, File>>> reportingProcess = reporter.reporting(process);
+        for (File root : roots.distinct()) {
+          validateFiles(root, filter, reportingProcess, pool);
+        }
 
-      List<Validation<EnforcerRuleException, File>> errors = validations.filter(Validation::isEmpty).distinct();
+        if (cache != null) {
+          cache.save(log);
+        }
 
-      errors.groupBy(v -> v.getError().getSource()).forEach((source, validations1) -> {
+        if (referenceIndex != null) {
+          List<Validation<EnforcerRuleException, File>> unusedMethods = referenceIndex.unusedMethods(log);
+          scanMetrics.violationsFound("projectWideUnused", unusedMethods.size());
+          reporter.retain(unusedMethods);
+          referenceIndex.save(log);
+        }
+      } finally {
+        reporter.close();
+        service.moduleFinished(project.getBasedir());
+      }
+
+      reportMetrics(project);
+
+      List<Validation<EnforcerRuleException, File>> errors = reporter.shown();
+
+      Map<Object, List<Validation<EnforcerRuleException, File>>> errorsBySource = errors.groupBy(v -> v.getError().getSource());
+      errors.map(v -> v.getError().getSource()).distinct().forEach(source -> {
         log.warn("Violations in: " + source);
-        for (Validation<EnforcerRuleException, File> validation : validations1) {
+        for (Validation<EnforcerRuleException, File> validation : errorsBySource.get(source).get()) {
           log.warn("    " + validation.getError().getMessage());
         }
       });
 
-      if (!errors.isEmpty()) {
-        throw new EnforcerRuleException(String.format("%s code enforcer violations found - check build log.", errors.length()));
+      if (reporter.total() > errors.length()) {
+        log.warn(String.format(
+            "... and %d more violations not shown, see the SARIF or JSON Lines report for all of them",
+            reporter.total() - errors.length()));
+      }
+
+      if (reporter.total() > 0) {
+        throw new EnforcerRuleException(String.format("%s code enforcer violations found - check build log.", reporter.total()));
       }
 
     } catch (ExpressionEvaluationException e) {
       throw new EnforcerRuleException("Unable to lookup an expression " + e.getLocalizedMessage(), e);
-    } catch (IOException e) {
-      throw new EnforcerRuleException(e.getMessage(), e);
+    } finally {
+      if (pool != null) {
+        pool.shutdown();
+      }
     }
   }
 
-  private List<Validation<EnforcerRuleException, File>> validateFiles(File srcDir, Predicate<String> classesPredicate)
-      throws IOException, EnforcerRuleException {
-    List<Validation<EnforcerRuleException, File>> patternResult = checkPatterns(srcDir, List.ofAll(patterns));
-    List<Validation<EnforcerRuleException, File>> classesResult = checkClasses(srcDir, classesPredicate);
-    List<Validation<EnforcerRuleException, File>> unusedPrivatesResult = checkUnusedPrivates(log, checkPrivates, srcDir);
+  /**
+   * Compiles this rule's checks for use outside of a Maven build, as by the {@link CodelineDaemon}, returning the
+   * function that checks a single file. The reference index, when given, is fed every file checked.
+   */
+  Function1<File, List<Validation<EnforcerRuleException, File>>> prepare(
+      Log log, ScanService service, List<File> roots, ReferenceIndex referenceIndex) throws EnforcerRuleException {
+    this.log = log;
+    Charset charset = charset(encoding != null ? encoding : "UTF-8");
+    resolvedCharset = charset;
+    scanMetrics = ScanMetrics.DISABLED;
+    scanLimits = new ScanLimits(log, maxFileSize, maxParsedFileSize, skipBinaryFiles, fileTimeBudgetMillis);
+    List<SourceCheck> checks = buildChecks(service, scanMetrics);
+    ParseCache parseCache = parseCacheSize > 0 ? service.parseCache(parseCacheSize) : null;
+    return buildProcess(
+        charset, service.parserConfiguration(roots), parseCache, checks, null, referenceIndex, scanLimits, scanMetrics);
+  }
+
+  SourceFilter sourceFilter() {
+    return SourceFilter.compile(includes, excludes);
+  }
+
+  boolean usesReferenceIndex() {
+    return checkPrivates && projectWideUnused;
+  }
+
+  /**
+   * Returns how many threads to check files on, one per processor unless configured otherwise.
+   */
+  int threadCount() {
+    return threads != null ? threads : Runtime.getRuntime().availableProcessors();
+  }
 
-    return patternResult.appendAll(classesResult).appendAll(unusedPrivatesResult);
+  /**
+   * Queues the files of every other module in the reactor to be checked in the background, with this execution's
+   * configuration, so their own executions only have to collect the results.
+   */
+  private void preScan(MavenSession session, ScanService service, SourceFilter filter, ParseCache parseCache, int threadCount) {
+    List<SourceCheck> checks = buildChecks(service, ScanMetrics.DISABLED);
+    log.info(String.format("Pre-scanning sources of %d modules", session.getProjects().size()));
+    for (MavenProject module : session.getProjects()) {
+      Charset charset;
+      try {
+        charset = sourceCharset(module);
+      } catch (EnforcerRuleException e) {
+        log.debug("Not pre-scanning " + module.getBasedir() + ": " + e.getMessage());
+        continue;
+      }
+      String fingerprint = configurationFingerprint(charset.name());
+      List<File> roots = moduleRoots(module);
+      ResultCache cache = cacheResults ? service.resultCache(log, workFile(module, "results.cache").toPath(), fingerprint) : null;
+      Function1<File, List<Validation<EnforcerRuleException, File>>> process = buildProcess(
+          charset, service.parserConfiguration(roots), parseCache, checks, cache, null, scanLimits, ScanMetrics.DISABLED);
+      java.util.List<File> files = new ArrayList<>();
+      for (File root : roots.distinct()) {
+        files.addAll(walkFiles(log, root, "sources", filter));
+      }
+      service.preScan(module.getBasedir(), fingerprint, files, Math.max(threadCount, 1), process);
+    }
+  }
+
+  private List<File> moduleRoots(MavenProject project) {
+    File srcDir = new File(project.getBuild().getSourceDirectory());
+    File testSrcDir = new File(project.getBuild().getTestSourceDirectory());
+    return List.of(srcDir, testSrcDir).appendAll(List.ofAll(sourceRoots).map(root -> projectFile(project, root)));
+  }
+
+  private void reportMetrics(MavenProject project) {
+    if (reportMetrics) {
+      scanMetrics.summarize(log);
+    }
+    if (metricsFile != null) {
+      File file = buildFile(project, metricsFile);
+      try {
+        scanMetrics.write(file.toPath());
+      } catch (IOException e) {
+        log.warn("Unable to write code enforcer metrics to " + file + ": " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Resolves a configured source root against the project's base directory, unless it is absolute.
+   */
+  private static File projectFile(MavenProject project, String path) {
+    File file = new File(path);
+    return file.isAbsolute() ? file : new File(project.getBasedir(), path);
+  }
+
+  /**
+   * Resolves a configured report path against the build directory, unless it is absolute or null.
+   */
+  private static File buildFile(MavenProject project, String path) {
+    if (path == null) {
+      return null;
+    }
+    File file = new File(path);
+    return file.isAbsolute() ? file : new File(project.getBuild().getDirectory(), path);
+  }
+
+  private Charset sourceCharset(MavenProject project) throws EnforcerRuleException {
+    return charset(encoding != null ? encoding : project.getProperties().getProperty("project.build.sourceEncoding", "UTF-8"));
+  }
+
+  private static Charset charset(String charsetName) throws EnforcerRuleException {
+    try {
+      return Charset.forName(charsetName);
+    } catch (IllegalArgumentException e) {
+      throw new EnforcerRuleException("Unsupported source encoding " + charsetName, e);
+    }
+  }
+
+  /**
+   * Builds the enabled checks, reusing whatever an earlier execution in the session compiled for the same settings.
+   */
+  private List<SourceCheck> buildChecks(ScanService service, ScanMetrics metrics) {
+    List<SourceCheck> checks = List.empty();
+    if (!patterns.isEmpty()) {
+      LinePatterns linePatterns = service.compiled(settingKey("patterns", patterns), () -> LinePatterns.compile(patterns));
+      checks = checks.append(metrics.timed("patterns", source -> checkPatterns(source, linePatterns, metrics)));
+    }
+    if (!classes.isEmpty()) {
+      ImportBans importBans = service.compiled(settingKey("classes", classes), () -> ImportBans.compile(classes));
+      checks = checks.append(metrics.timed("classes", javaOnly(source -> checkClasses(source, importBans))));
+    }
+    StructuralRules structuralRules = service.compiled(
+        settingKey("structural", bannedMethodCalls, bannedConstructors, bannedAnnotations, bannedFieldTypes),
+        () -> StructuralRules.compile(bannedMethodCalls, bannedConstructors, bannedAnnotations, bannedFieldTypes));
+    if (!structuralRules.isEmpty()) {
+      checks = checks.append(metrics.timed("structural", javaOnly(scanLimits.parsed("structural", structuralRules::check))));
+    }
+    if (checkPrivates) {
+      boolean checkPublicMethods = !projectWideUnused;
+      checks = checks.append(metrics.timed("checkPrivates", javaOnly(scanLimits.parsed(
+          "checkPrivates", source -> CheckUnusedPrivateFields.checkUnusedPrivates(source, checkPublicMethods)))));
+    }
+    return checks;
+  }
+
+  @SafeVarargs
+  private static String settingKey(String name, java.util.List<String>... settings) {
+    StringBuilder key = new StringBuilder(name);
+    for (java.util.List<String> setting : settings) {
+      appendSetting(key, setting);
+    }
+    return key.toString();
+  }
+
+  /**
+   * Appends {@code values} so that no two different lists append the same text: the list and each value are prefixed
+   * with their length.
+   */
+  private static StringBuilder appendSetting(StringBuilder sb, java.util.List<String> values) {
+    sb.append('[').append(values.size());
+    for (String value : values) {
+      sb.append(',').append(value.length()).append(':').append(value);
+    }
+    return sb.append(']');
   }
 
-  private List<Validation<EnforcerRuleException, File>> checkClasses(File srcDir, Predicate<String> classesPredicate)
-      throws IOException, EnforcerRuleException {
-    return checkFiles(log, srcDir, "classes", file -> {
-      ParseResult<CompilationUnit> parseResult;
+  /**
+   * Limits {@code check} to Java sources, for when other files are included for the line patterns.
+   */
+  private static SourceCheck javaOnly(SourceCheck check) {
+    return source -> source.getFile().getName().endsWith(".java") ? check.check(source) : List.empty();
+  }
 
+  /**
+   * Builds the function applied to each file: it feeds the project-wide reference index, when enabled, and then runs
+   * the checks unless unchanged results are already cached. Files the limits rule out are skipped, and a file that runs
+   * past its time budget is abandoned without results.
+   */
+  private static Function1<File, List<Validation<EnforcerRuleException, File>>> buildProcess(
+      Charset charset,
+      ParserConfiguration parserConfiguration,
+      ParseCache parseCache,
+      List<SourceCheck> checks,
+      ResultCache cache,
+      ReferenceIndex referenceIndex,
+      ScanLimits limits,
+      ScanMetrics metrics) {
+    return file -> {
+      long start = metrics.isEnabled() ? System.nanoTime() : 0;
+      SourceFile source = new SourceFile(file, charset, parserConfiguration, parseCache);
+      List<Validation<EnforcerRuleException, File>> results;
       try {
-        parseResult = new JavaParser().parse(file);
-      } catch (FileNotFoundException e) {
-        throw new RuntimeException(e.getMessage(), e);
+        limits.startTimeBudget(source);
+        results = processFile(source, checks, cache, referenceIndex, limits, metrics);
+      } catch (TimeBudgetExceededException e) {
+        limits.abandoned(file);
+        results = List.empty();
       }
+      metrics.fileScanned(source, start);
+      return results;
+    };
+  }
 
-      if (parseResult.getResult().isPresent()) {
+  private static List<Validation<EnforcerRuleException, File>> processFile(
+      SourceFile source,
+      List<SourceCheck> checks,
+      ResultCache cache,
+      ReferenceIndex referenceIndex,
+      ScanLimits limits,
+      ScanMetrics metrics) {
+    File file = source.getFile();
+    if (referenceIndex != null && file.getName().endsWith(".java")) {
+      if (!limits.isParseable(file)) {
+        referenceIndex.unindexed(file);
+      } else {
         try {
-          CompilationUnit cu = parseResult.getResult().get();
-          for (ImportDeclaration importDeclaration : cu.getImports()) {
-            String packageName = importDeclaration.getChildNodes().get(0).toString();
-            if (classesPredicate.test(packageName)) {
-              Position begin = importDeclaration.getBegin().orElse(Position.HOME);
-              return List.of(invalid(new EnforcerRuleException(
-                  relativePathOfFile(file),
-                  String.format(
-                      "Illegal class import - %s at %s:%d:%d is bad!", packageName, file.getPath(), begin.line, begin.column),
-                  "")));
-            }
-          }
-          return List.of(valid(file));
-        } catch (Exception e) {
-          return List.of(invalid(new EnforcerRuleException(file.getPath(), e.getMessage(), "")));
+          referenceIndex.collect(source);
+        } catch (TimeBudgetExceededException e) {
+          referenceIndex.unindexed(file);
+          throw e;
+        } catch (IOException e) {
+          referenceIndex.unindexed(file);
+          return List.of(invalid(new Violation(
+              "error", file, 0, 0, null, String.format("%s: %s", file.getPath(), e.getMessage()), null)));
         }
-      } else {
-        return List.empty();
       }
-    });
+    }
+    if (cache != null) {
+      Option<List<Validation<EnforcerRuleException, File>>> cached = cache.lookup(file);
+      if (cached.isDefined()) {
+        metrics.fileCached();
+        return cached.get();
+      }
+    }
+    long size = file.length();
+    long lastModified = file.lastModified();
+    List<Validation<EnforcerRuleException, File>> results = List.empty();
+    if (limits.isCheckable(source)) {
+      for (SourceCheck check : checks) {
+        results = results.appendAll(check.check(source));
+        // checks report their own failures, so a check that ran out of time shows up here instead
+        source.checkTimeBudget();
+      }
+    }
+    if (cache != null) {
+      cache.store(file, size, lastModified, results);
+    }
+    return results;
   }
 
-  private Predicate<String> buildClassPredicate(List<String> classes) {
-    return input -> {
-      for (String aClass : classes) {
-        if (Pattern.compile(aClass).matcher(input).matches()) {
-          return true;
-        }
+  /**
+   * Restricts {@code process} to the files git reports as changed since {@code changedSince}, falling back to every file
+   * when git can't say, or when a check needs to see the whole project.
+   */
+  private Function1<File, List<Validation<EnforcerRuleException, File>>> onlyChangedFiles(
+      MavenProject project, Function1<File, List<Validation<EnforcerRuleException, File>>> process, ResultCache cache) {
+    if (checkPrivates && projectWideUnused) {
+      log.info("Checking all files, as projectWideUnused needs the whole project");
+      return process;
+    }
+    Option<Set<File>> changed = GitChanges.changedFiles(log, project.getBasedir(), changedSince);
+    if (changed.isEmpty()) {
+      log.info("Checking all files");
+      return process;
+    }
+    Set<File> changedFiles = changed.get();
+    log.info(String.format("Checking only files changed since %s", changedSince));
+    return file -> {
+      if (changedFiles.contains(canonicalFile(file))) {
+        return process.apply(file);
+      }
+      if (cache != null) {
+        cache.retain(file);
       }
-      return false;
+      return List.empty();
     };
   }
 
-  private List<Validation<EnforcerRuleException, File>> checkPatterns(File srcDir, final List<String> patterns)
-      throws IOException, EnforcerRuleException {
-    return checkFiles(log, srcDir, "patterns", file -> {
-      try {
-        LineNumberReader reader = new LineNumberReader(new FileReader(file));
-        String line;
-        while ((line = reader.readLine()) != null) {
-          for (String pattern : patterns) {
-            if (Pattern.compile(pattern).matcher(line).find()) {
-              StringBuilder sb = new StringBuilder();
-              sb.append("Found pattern " + pattern + " at " + file.getPath() + ":" + reader.getLineNumber());
-              sb.append("\n");
-              sb.append(line);
-              return List.of(invalid(new EnforcerRuleException(String.format("%s: %s", file.getPath(), sb.toString()))));
-            }
-          }
-        }
-        return List.of(valid(file));
-      } catch (IOException e) {
-        log.error(e.getMessage());
-        return List.of(invalid(new EnforcerRuleException(String.format("%s: %s", file.getPath(), e.getMessage()))));
+  private static File canonicalFile(File file) {
+    try {
+      return file.getCanonicalFile();
+    } catch (IOException e) {
+      return file.getAbsoluteFile();
+    }
+  }
+
+  private List<Validation<EnforcerRuleException, File>> validateFiles(
+      File srcDir,
+      SourceFilter filter,
+      Function1<File, List<Validation<EnforcerRuleException, File>>> process,
+      ForkJoinPool pool)
+      throws EnforcerRuleException {
+    return pool == null
+        ? checkFiles(log, srcDir, "sources", filter, process)
+        : checkFiles(log, srcDir, "sources", filter, pool, process);
+  }
+
+  List<Validation<EnforcerRuleException, File>> checkClasses(SourceFile source, ImportBans importBans) {
+    File file = source.getFile();
+    java.util.List<ImportHeader.Import> imports;
+
+    try {
+      imports = source.getImports();
+    } catch (IOException e) {
+      return List.of(invalid(new Violation(
+          "classes", file, 0, 0, null, String.format("%s: %s", file.getPath(), e.getMessage()), null)));
+    }
+
+    List<Validation<EnforcerRuleException, File>> validations = List.empty();
+    for (ImportHeader.Import anImport : imports) {
+      if (importBans.test(anImport.getName())) {
+        validations = validations.append(invalid(new Violation(
+            "classes",
+            file,
+            anImport.getLine(),
+            anImport.getColumn(),
+            relativePathOfFile(file),
+            String.format(
+                "Illegal class import - %s at %s:%d:%d is bad!",
+                anImport.getName(),
+                file.getPath(),
+                anImport.getLine(),
+                anImport.getColumn()),
+            "")));
       }
-    });
+    }
+    return validations.isEmpty() ? List.of(valid(file)) : validations;
+  }
+
+  List<Validation<EnforcerRuleException, File>> checkPatterns(SourceFile source, final LinePatterns patterns) {
+    return checkPatterns(source, patterns, scanMetrics);
+  }
+
+  private List<Validation<EnforcerRuleException, File>> checkPatterns(
+      SourceFile source, final LinePatterns patterns, ScanMetrics metrics) {
+    File file = source.getFile();
+    try {
+      CharSequence content = source.getContent();
+      java.util.List<Validation<EnforcerRuleException, File>> validations = new ArrayList<>();
+      LinePatterns.Scanner scanner = metrics.isEnabled() ? patterns.timedScanner() : patterns.scanner();
+      int[] matches = new int[patterns.size()];
+      scanner.scan(content, (index, lineNumber, lineStart, lineEnd) -> {
+        matches[index]++;
+        String line = Violation.truncate(content.subSequence(lineStart, lineEnd));
+        StringBuilder sb = new StringBuilder();
+        sb.append("Found pattern " + patterns.source(index) + " at " + file.getPath() + ":" + lineNumber);
+        sb.append("\n");
+        sb.append(line);
+        validations.add(invalid(new Violation(
+            "patterns", file, lineNumber, 0, null, String.format("%s: %s", file.getPath(), sb.toString()), line)));
+      });
+      metrics.patternsScanned(patterns, scanner, matches);
+      return validations.isEmpty() ? List.of(valid(file)) : List.ofAll(validations);
+    } catch (IOException e) {
+      log.error(e.getMessage());
+      return List.of(invalid(new Violation(
+          "patterns", file, 0, 0, null, String.format("%s: %s", file.getPath(), e.getMessage()), null)));
+    }
   }
 
   public static List<Validation<EnforcerRuleException, File>> checkFiles(
-      Log log, File srcDir, String type, Function1<File, List<Validation<EnforcerRuleException, File>>> process)
-      throws IOException, EnforcerRuleException {
-    return checkFiles(List.empty(), log, srcDir, type, process);
+      Log log, File srcDir, String type, Function1<File, List<Validation<EnforcerRuleException, File>>> process) {
+    return checkFiles(log, srcDir, type, SourceFilter.DEFAULT, process);
+  }
+
+  public static List<Validation<EnforcerRuleException, File>> checkFiles(
+      Log log,
+      File srcDir,
+      String type,
+      SourceFilter filter,
+      Function1<File, List<Validation<EnforcerRuleException, File>>> process) {
+    java.util.List<Validation<EnforcerRuleException, File>> validations = new ArrayList<>();
+    for (File file : walkFiles(log, srcDir, type, filter)) {
+      validations.addAll(process.apply(file).asJava());
+    }
+    return List.ofAll(validations);
   }
 
+  /**
+   * Checks every included file below {@code srcDir} on the given pool, returning the results in the same order as the
+   * sequential {@link #checkFiles(Log, File, String, SourceFilter, Function1)}.
+   */
   public static List<Validation<EnforcerRuleException, File>> checkFiles(
-      List<Validation<EnforcerRuleException, File>> validations,
       Log log,
       File srcDir,
       String type,
-      Function1<File, List<Validation<EnforcerRuleException, File>>> process) throws IOException, EnforcerRuleException {
-    if (srcDir == null)
-      return validations;
+      SourceFilter filter,
+      ForkJoinPool pool,
+      Function1<File, List<Validation<EnforcerRuleException, File>>> process)
+      throws EnforcerRuleException {
+    java.util.List<File> files = walkFiles(log, srcDir, type, filter);
+
+    try {
+      java.util.List<List<Validation<EnforcerRuleException, File>>> results =
+          pool.submit(() -> files.parallelStream().map(process).collect(Collectors.toList())).get();
+      return List.ofAll(results).flatMap(Function.identity());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new EnforcerRuleException("Interrupted whilst checking " + type + " in " + srcDir.getPath(), e);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new EnforcerRuleException(e.getCause().getMessage(), e.getCause());
+    }
+  }
+
+  /**
+   * Returns every file below {@code srcDir} that {@code filter} includes, in sorted depth-first order. Directories the
+   * filter excludes are not descended into.
+   */
+  static java.util.List<File> walkFiles(Log log, File srcDir, String type, SourceFilter filter) {
+    return walkFiles(log, srcDir, type, new SourceVisitor(log, filter));
+  }
+
+  static java.util.List<File> walkFiles(Log log, File srcDir, String type, SourceVisitor visitor) {
+    if (srcDir == null || !srcDir.isDirectory()) {
+      log.debug("No files found for " + srcDir);
+      return new ArrayList<>();
+    }
 
     log.debug("Checking " + type + "  in " + srcDir.getPath());
 
-    File[] files = srcDir.listFiles();
+    try {
+      Files.walkFileTree(srcDir.toPath(), visitor);
+    } catch (IOException e) {
+      log.warn("Unable to walk " + srcDir + ": " + e.getMessage());
+    }
 
-    if (files == null) {
-      log.debug("No files found for " + srcDir.getPath());
-      return validations;
+    java.util.List<Path> files = visitor.files;
+    files.sort(CodelineFailureRule::compareByElement);
+    java.util.List<File> sorted = new ArrayList<>(files.size());
+    for (Path file : files) {
+      log.debug("Checking file " + file);
+      sorted.add(file.toFile());
     }
+    return sorted;
+  }
 
-    for (File file : files) {
-      if (file.isDirectory()) {
-        List<Validation<EnforcerRuleException, File>> result = checkFiles(validations, log, file, type, process);
-        validations = validations.appendAll(result);
-      } else {
-        if (fileIsAcceptable.test(file)) {
-          log.debug("Checking file " + file.getPath());
-          List<Validation<EnforcerRuleException, File>> result = process.apply(file);
-          validations = validations.appendAll(result);
-        }
+  /**
+   * Collects the included files below the directory it is first given, skipping the directories the filter prunes.
+   */
+  static class SourceVisitor extends SimpleFileVisitor<Path> {
+    private final Log log;
+
+    private final SourceFilter filter;
+
+    private final java.util.List<Path> files = new ArrayList<>();
+
+    private Path root;
+
+    SourceVisitor(Log log, SourceFilter filter) {
+      this.log = log;
+      this.filter = filter;
+    }
+
+    @Override
+    public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+      if (root == null) {
+        root = dir;
+      } else if (filter.isPruned(root.relativize(dir))) {
+        log.debug("Skipping excluded directory " + dir);
+        return FileVisitResult.SKIP_SUBTREE;
       }
+      return FileVisitResult.CONTINUE;
     }
-    return validations;
+
+    @Override
+    public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+      if (attrs.isRegularFile() && filter.isIncluded(root.relativize(file))) {
+        files.add(file);
+      }
+      return FileVisitResult.CONTINUE;
+    }
+
+    @Override
+    public FileVisitResult visitFileFailed(Path file, IOException e) {
+      log.debug("Unable to read " + file + ": " + e.getMessage());
+      return FileVisitResult.CONTINUE;
+    }
+  }
+
+  /**
+   * Orders paths one name at a time, so a directory's contents sort where the directory itself would.
+   */
+  private static int compareByElement(Path a, Path b) {
+    int common = Math.min(a.getNameCount(), b.getNameCount());
+    for (int i = 0; i < common; i++) {
+      int compared = a.getName(i).toString().compareTo(b.getName(i).toString());
+      if (compared != 0) {
+        return compared;
+      }
+    }
+    return Integer.compare(a.getNameCount(), b.getNameCount());
+  }
+
+  private static File workFile(MavenProject project, String name) {
+    return new File(project.getBuild().getDirectory(), "codeline-enforcer/" + name);
   }
 
+  /**
+   * A digest of everything that affects the outcome of checking a single file: the rule configuration, the source
+   * encoding and the version of this rule.
+   */
+  private String configurationFingerprint(String charsetName) {
+    StringBuilder sb = new StringBuilder();
+    sb.append("version=").append(pluginVersion()).append('\n');
+    appendSetting(sb.append("patterns="), patterns).append('\n');
+    appendSetting(sb.append("classes="), classes).append('\n');
+    appendSetting(sb.append("bannedMethodCalls="), bannedMethodCalls).append('\n');
+    appendSetting(sb.append("bannedConstructors="), bannedConstructors).append('\n');
+    appendSetting(sb.append("bannedAnnotations="), bannedAnnotations).append('\n');
+    appendSetting(sb.append("bannedFieldTypes="), bannedFieldTypes).append('\n');
+    sb.append("checkPrivates=").append(checkPrivates).append('\n');
+    sb.append("projectWideUnused=").append(projectWideUnused).append('\n');
+    sb.append("maxFileSize=").append(maxFileSize).append('\n');
+    sb.append("maxParsedFileSize=").append(maxParsedFileSize).append('\n');
+    sb.append("skipBinaryFiles=").append(skipBinaryFiles).append('\n');
+    sb.append("encoding=").append(charsetName).append('\n');
+    return Hashing.sha256().hashString(sb, StandardCharsets.UTF_8).toString();
+  }
+
+  static String pluginVersion() {
+    try (InputStream in = CodelineFailureRule.class.getResourceAsStream(
+             "/META-INF/maven/com.theoryinpractise/codeline-enforcer-rule/pom.properties")) {
+      if (in != null) {
+        Properties properties = new Properties();
+        properties.load(in);
+        return properties.getProperty("version", "unknown");
+      }
+    } catch (IOException e) {
+      // fall through to an unknown version
+    }
+    return "unknown";
+  }
+
+  /**
+   * The configuration fingerprint, so the enforcer can tell when two executions of this rule are configured alike. It
+   * is the fingerprint the result cache uses, taken with the charset resolved for the project once the rule has run.
+   */
   @Override
   public String getCacheId() {
-    return null;
+    if (resolvedCharset != null) {
+      return configurationFingerprint(resolvedCharset.name());
+    }
+    try {
+      return configurationFingerprint(charset(encoding != null ? encoding : "UTF-8").name());
+    } catch (EnforcerRuleException e) {
+      return configurationFingerprint(encoding);
+    }
   }
 
+  /**
+   * The enforcer keys its cache on the rule class and {@link #getCacheId()} alone, and shares it across every module in
+   * the reactor, so a cached result would wrongly skip checking other modules' sources. Repeat executions are instead
+   * made cheap by the per-file {@link ResultCache}.
+   */
   @Override
   public boolean isCacheable() {
     return false;
   }
 
   @Override
-  public boolean isResultValid(EnforcerRule arg0) {
-    return false;
+  public boolean isResultValid(EnforcerRule cachedRule) {
+    return cachedRule instanceof CodelineFailureRule && getCacheId().equals(cachedRule.getCacheId());
   }
 
   static String nodeName(Node node) {
@@ -0,0 +1,101 @@
+package com.theoryinpractise.codelinefailure;
+
+import io.vavr.control.Option;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Asks the local git repository which files differ from a base ref, using the {@code git} binary.
+ *
+ * <p>Changed files are those differing between the working tree and the merge base of the base ref and {@code HEAD},
+ * or the base ref itself when there is no merge base, along with any untracked files that aren't ignored. Deleted files
+ * are left out. Only the local repository is consulted, so this works offline.
+ */
+public class GitChanges {
+  private GitChanges() {}
+
+  /**
+   * Returns the canonical paths of the files changed since {@code baseRef}, or none if git can't answer, in which case
+   * the reason is logged as a warning.
+   */
+  public static Option<Set<File>> changedFiles(Log log, File directory, String baseRef) {
+    try {
+      File root = new File(git(directory, "rev-parse", "--show-toplevel").trim());
+      String mergeBase = gitOrNull(directory, "merge-base", baseRef, "HEAD");
+      String base = mergeBase != null ? mergeBase.trim() : baseRef;
+
+      Set<File> changed = new HashSet<>();
+      // --no-relative, as diff.relative would otherwise make the paths relative to the directory rather than the root
+      addPaths(changed, root, git(directory, "diff", "--name-only", "--no-relative", "-z", "--diff-filter=d", base, "--"));
+      addPaths(changed, root, git(directory, "ls-files", "--others", "--exclude-standard", "-z", "--full-name"));
+      log.debug(String.format("git reports %d files changed since %s (%s)", changed.size(), baseRef, base));
+      return Option.some(changed);
+    } catch (IOException e) {
+      log.warn("Unable to find files changed since " + baseRef + ": " + e.getMessage());
+      return Option.none();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return Option.none();
+    }
+  }
+
+  private static void addPaths(Set<File> changed, File root, String output) throws IOException {
+    for (String path : output.split("\0")) {
+      if (!path.isEmpty()) {
+        changed.add(new File(root, path).getCanonicalFile());
+      }
+    }
+  }
+
+  private static String gitOrNull(File directory, String... arguments) throws InterruptedException {
+    try {
+      return git(directory, arguments);
+    } catch (IOException e) {
+      return null;
+    }
+  }
+
+  private static String git(File directory, String... arguments) throws IOException, InterruptedException {
+    String[] command = new String[arguments.length + 1];
+    command[0] = "git";
+    System.arraycopy(arguments, 0, command, 1, arguments.length);
+
+    // stderr goes to a file, so git can't block writing to it while we wait for stdout to end
+    File errors = File.createTempFile("codeline-git", ".err");
+    try {
+      Process process = new ProcessBuilder(command).directory(directory).redirectError(errors).start();
+      process.getOutputStream().close();
+      String output = readFully(process.getInputStream());
+      int exitCode = process.waitFor();
+      if (exitCode != 0) {
+        String error = readFully(new FileInputStream(errors));
+        throw new IOException(String.format("git %s exited with %d: %s", String.join(" ", arguments), exitCode, error.trim()));
+      }
+      return output;
+    } finally {
+      Files.deleteIfExists(errors.toPath());
+    }
+  }
+
+  private static String readFully(InputStream in) throws IOException {
+    try (InputStream input = in) {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      byte[] buffer = new byte[8192];
+      int read;
+      while ((read = input.read(buffer)) != -1) {
+        bytes.write(buffer, 0, read);
+      }
+      return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+  }
+}
@@ -0,0 +1,131 @@
+package com.theoryinpractise.codelinefailure;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * The configured {@code classes} import bans, compiled once per rule execution.
+ *
+ * <p>Most bans are package or class names such as {@code java\.util\..*} or {@code org.example.Legacy}, so these are
+ * loaded into a character trie where an unescaped {@code .} is a wildcard edge, {@code \.} a literal dot and a trailing
+ * {@code .*} accepts any remainder, matching exactly what the regex would. The remaining bans are merged into a single
+ * alternation, except those {@link LinePatterns#isMergeable(String)} turns away, which are kept as separate patterns,
+ * as are all of them if they don't compile together.
+ */
+public class ImportBans implements Predicate<String> {
+  private final Node root = new Node();
+
+  private final List<Pattern> patterns = new ArrayList<>();
+
+  private ImportBans(List<String> bans) {
+    List<String> mergeable = new ArrayList<>();
+    for (String ban : bans) {
+      if (!addLiteral(ban)) {
+        if (LinePatterns.isMergeable(ban)) {
+          mergeable.add(ban);
+        } else {
+          patterns.add(Pattern.compile(ban));
+        }
+      }
+    }
+    Pattern alternation = mergeable.size() > 1 ? LinePatterns.alternation(mergeable) : null;
+    if (alternation != null) {
+      patterns.add(alternation);
+    } else {
+      for (String ban : mergeable) {
+        patterns.add(Pattern.compile(ban));
+      }
+    }
+  }
+
+  public static ImportBans compile(List<String> bans) {
+    return new ImportBans(bans);
+  }
+
+  @Override
+  public boolean test(String importName) {
+    if (matches(root, importName, 0)) {
+      return true;
+    }
+    for (Pattern pattern : patterns) {
+      if (pattern.matcher(importName).matches()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Adds {@code ban} to the trie if it only uses name characters, escaped dots, wildcard dots and a trailing
+   * {@code .*}, returning false, without touching the trie, for anything else.
+   */
+  private boolean addLiteral(String ban) {
+    List<Character> edges = new ArrayList<>();
+    boolean anySuffix = false;
+    for (int i = 0; i < ban.length(); i++) {
+      char c = ban.charAt(i);
+      if (c == '\\' && i + 1 < ban.length() && (ban.charAt(i + 1) == '.' || ban.charAt(i + 1) == '$')) {
+        edges.add(ban.charAt(++i));
+      } else if (c == '.' && i + 2 == ban.length() && ban.charAt(i + 1) == '*') {
+        anySuffix = true;
+        break;
+      } else if (c == '.') {
+        edges.add(null);
+      } else if (Character.isJavaIdentifierPart(c) && c != '$') {
+        edges.add(c);
+      } else {
+        return false;
+      }
+    }
+
+    Node node = root;
+    for (Character edge : edges) {
+      node = edge == null ? node.wildcard() : node.child(edge);
+    }
+    if (anySuffix) {
+      node.anySuffix = true;
+    } else {
+      node.terminal = true;
+    }
+    return true;
+  }
+
+  private static boolean matches(Node node, String name, int index) {
+    if (node.anySuffix) {
+      return true;
+    }
+    if (index == name.length()) {
+      return node.terminal;
+    }
+    Node child = node.children.get(name.charAt(index));
+    if (child != null && matches(child, name, index + 1)) {
+      return true;
+    }
+    return node.wildcard != null && matches(node.wildcard, name, index + 1);
+  }
+
+  private static class Node {
+    final Map<Character, Node> children = new HashMap<>();
+
+    Node wildcard;
+
+    boolean terminal;
+
+    boolean anySuffix;
+
+    Node child(char c) {
+      return children.computeIfAbsent(c, key -> new Node());
+    }
+
+    Node wildcard() {
+      if (wildcard == null) {
+        wildcard = new Node();
+      }
+      return wildcard;
+    }
+  }
+}
@@ -0,0 +1,280 @@
+package com.theoryinpractise.codelinefailure;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the import declarations from the header of a Java source file, without parsing the rest of it.
+ *
+ * <p>The lexer skips whitespace, comments, annotations and the {@code package} declaration, and stops at the first
+ * token that can't belong to the header, normally the start of the first type declaration. A malformed import also
+ * ends the header, so at worst an import is missed, never invented.
+ */
+public class ImportHeader {
+  private final Chars chars;
+
+  private int lookahead = -2;
+
+  private int secondLookahead = -2;
+
+  private int line = 1;
+
+  private int column = 1;
+
+  private boolean afterCarriageReturn;
+
+  private ImportHeader(Chars chars) {
+    this.chars = chars;
+  }
+
+  public static List<Import> read(CharSequence content) throws IOException {
+    int[] position = {0};
+    return new ImportHeader(() -> position[0] < content.length() ? content.charAt(position[0]++) : -1).imports();
+  }
+
+  /**
+   * Reads the imports from {@code reader}, consuming no more of it than the header.
+   */
+  public static List<Import> read(Reader reader) throws IOException {
+    return new ImportHeader(reader::read).imports();
+  }
+
+  /**
+   * An import, with its name as written minus any {@code static} modifier or trailing {@code .*}, and the position of
+   * its {@code import} keyword.
+   */
+  public static class Import {
+    private final String name;
+
+    private final int line;
+
+    private final int column;
+
+    Import(String name, int line, int column) {
+      this.name = name;
+      this.line = line;
+      this.column = column;
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public int getLine() {
+      return line;
+    }
+
+    public int getColumn() {
+      return column;
+    }
+  }
+
+  @FunctionalInterface
+  private interface Chars {
+    int read() throws IOException;
+  }
+
+  private List<Import> imports() throws IOException {
+    List<Import> imports = new ArrayList<>();
+    while (true) {
+      skipTrivia();
+      int c = peek();
+      if (c == ';') {
+        next();
+      } else if (c == '@') {
+        next();
+        skipTrivia();
+        String name = qualifiedName();
+        if (name == null || name.equals("interface")) {
+          return imports;
+        }
+        skipTrivia();
+        if (peek() == '(') {
+          skipParentheses();
+        }
+      } else if (c != -1 && Character.isJavaIdentifierStart(c)) {
+        int importLine = line;
+        int importColumn = column;
+        String keyword = identifier();
+        if (keyword.equals("package")) {
+          if (qualifiedName() == null || !expect(';')) {
+            return imports;
+          }
+        } else if (keyword.equals("import")) {
+          Import anImport = importDeclaration(importLine, importColumn);
+          if (anImport == null) {
+            return imports;
+          }
+          imports.add(anImport);
+        } else {
+          return imports;
+        }
+      } else {
+        return imports;
+      }
+    }
+  }
+
+  private Import importDeclaration(int importLine, int importColumn) throws IOException {
+    skipTrivia();
+    String name = identifier();
+    if ("static".equals(name)) {
+      skipTrivia();
+      name = identifier();
+    }
+    if (name == null) {
+      return null;
+    }
+    StringBuilder qualified = new StringBuilder(name);
+    while (true) {
+      skipTrivia();
+      if (peek() != '.') {
+        break;
+      }
+      next();
+      skipTrivia();
+      if (peek() == '*') {
+        next();
+        break;
+      }
+      String part = identifier();
+      if (part == null) {
+        return null;
+      }
+      qualified.append('.').append(part);
+    }
+    return expect(';') ? new Import(qualified.toString(), importLine, importColumn) : null;
+  }
+
+  private String qualifiedName() throws IOException {
+    skipTrivia();
+    String name = identifier();
+    if (name == null) {
+      return null;
+    }
+    StringBuilder qualified = new StringBuilder(name);
+    while (true) {
+      skipTrivia();
+      if (peek() != '.') {
+        return qualified.toString();
+      }
+      next();
+      skipTrivia();
+      String part = identifier();
+      if (part == null) {
+        return null;
+      }
+      qualified.append('.').append(part);
+    }
+  }
+
+  private String identifier() throws IOException {
+    int c = peek();
+    if (c == -1 || !Character.isJavaIdentifierStart(c)) {
+      return null;
+    }
+    StringBuilder identifier = new StringBuilder();
+    while (peek() != -1 && Character.isJavaIdentifierPart(peek())) {
+      identifier.append((char) next());
+    }
+    return identifier.toString();
+  }
+
+  private boolean expect(char expected) throws IOException {
+    skipTrivia();
+    if (peek() != expected) {
+      return false;
+    }
+    next();
+    return true;
+  }
+
+  /**
+   * Skips a parenthesised annotation argument list, including any nested parentheses, string and character literals
+   * and comments within it.
+   */
+  private void skipParentheses() throws IOException {
+    int depth = 0;
+    do {
+      skipTrivia();
+      int c = next();
+      if (c == -1) {
+        return;
+      } else if (c == '(') {
+        depth++;
+      } else if (c == ')') {
+        depth--;
+      } else if (c == '"' || c == '\'') {
+        skipLiteral(c);
+      }
+    } while (depth > 0);
+  }
+
+  private void skipLiteral(int quote) throws IOException {
+    int c;
+    while ((c = next()) != -1 && c != quote) {
+      if (c == '\\') {
+        next();
+      }
+    }
+  }
+
+  private void skipTrivia() throws IOException {
+    while (true) {
+      int c = peek();
+      if (c == '/' && peekSecond() == '/') {
+        while (peek() != -1 && peek() != '\n' && peek() != '\r') {
+          next();
+        }
+      } else if (c == '/' && peekSecond() == '*') {
+        next();
+        next();
+        while (peek() != -1 && !(peek() == '*' && peekSecond() == '/')) {
+          next();
+        }
+        next();
+        next();
+      } else if (c != -1 && (Character.isWhitespace(c) || c == '\uFEFF')) {
+        next();
+      } else {
+        return;
+      }
+    }
+  }
+
+  private int peek() throws IOException {
+    if (lookahead == -2) {
+      lookahead = chars.read();
+    }
+    return lookahead;
+  }
+
+  private int peekSecond() throws IOException {
+    peek();
+    if (secondLookahead == -2) {
+      secondLookahead = lookahead == -1 ? -1 : chars.read();
+    }
+    return secondLookahead;
+  }
+
+  private int next() throws IOException {
+    int c = peek();
+    lookahead = secondLookahead;
+    secondLookahead = -2;
+    if (c == '\n') {
+      if (!afterCarriageReturn) {
+        line++;
+      }
+      column = 1;
+    } else if (c == '\r') {
+      line++;
+      column = 1;
+    } else if (c != -1) {
+      column++;
+    }
+    afterCarriageReturn = c == '\r';
+    return c;
+  }
+}
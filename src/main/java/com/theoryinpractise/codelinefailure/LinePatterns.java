@@ -0,0 +1,333 @@
+package com.theoryinpractise.codelinefailure;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The configured line {@code patterns}, compiled once per rule execution.
+ *
+ * <p>Each pattern with a literal prefix is only run against a line when an Aho-Corasick scan of the line has found that
+ * prefix. The remaining patterns are merged into a single alternation which is run first, so a line that none of them
+ * can match costs one regex search rather than one per pattern. Patterns using back references, named groups, quoting
+ * or comments are never merged, as the alternation would change their meaning, and patterns that still don't compile
+ * together are run one at a time.
+ */
+public class LinePatterns {
+  private static final Pattern NOT_MERGEABLE = Pattern.compile("\\\\([1-9]|k<|Q)|\\(\\?<[a-zA-Z]|\\(\\?[a-zA-Z-]*x");
+
+  private static final String QUANTIFIERS = "?*+{";
+
+  private static final String META_CHARACTERS = "\\[](){}.*+?^$|";
+
+  private final List<String> sources;
+
+  private final Pattern[] patterns;
+
+  private final LiteralAutomaton prefilter;
+
+  private final int[] unfiltered;
+
+  private final Pattern combined;
+
+  private LinePatterns(List<String> sources) {
+    this.sources = sources;
+    this.patterns = new Pattern[sources.size()];
+
+    List<String> literals = new ArrayList<>();
+    List<Integer> literalOwners = new ArrayList<>();
+    List<Integer> unfilteredIndexes = new ArrayList<>();
+    List<String> unfilteredSources = new ArrayList<>();
+    boolean combinable = true;
+
+    for (int i = 0; i < sources.size(); i++) {
+      String source = sources.get(i);
+      patterns[i] = Pattern.compile(source);
+      String literal = literalPrefix(source);
+      if (literal.isEmpty()) {
+        unfilteredIndexes.add(i);
+        unfilteredSources.add(source);
+        combinable &= isMergeable(source);
+      } else {
+        literals.add(literal);
+        literalOwners.add(i);
+      }
+    }
+
+    this.prefilter = new LiteralAutomaton(literals, literalOwners);
+    this.unfiltered = unfilteredIndexes.stream().mapToInt(Integer::intValue).toArray();
+    this.combined = combinable && unfiltered.length > 1 ? alternation(unfilteredSources) : null;
+  }
+
+  /**
+   * Returns true unless {@code source} uses back references, named groups, quoting or comments, whose meaning would
+   * change, or which would swallow the patterns after them, in an alternation with other patterns.
+   */
+  static boolean isMergeable(String source) {
+    return !NOT_MERGEABLE.matcher(source).find();
+  }
+
+  /**
+   * Compiles {@code sources} as a single alternation, or returns null if they don't compile together.
+   */
+  static Pattern alternation(List<String> sources) {
+    StringBuilder alternation = new StringBuilder();
+    for (String source : sources) {
+      alternation.append(alternation.length() == 0 ? "" : "|").append("(?:").append(source).append(")");
+    }
+    try {
+      return Pattern.compile(alternation.toString());
+    } catch (PatternSyntaxException e) {
+      return null;
+    }
+  }
+
+  public static LinePatterns compile(List<String> patterns) {
+    return new LinePatterns(new ArrayList<>(patterns));
+  }
+
+  public String source(int index) {
+    return sources.get(index);
+  }
+
+  public int size() {
+    return patterns.length;
+  }
+
+  /**
+   * Creates a scanner holding the per-file matcher state. Scanners are not thread safe, so each file being checked
+   * should use its own.
+   */
+  public Scanner scanner() {
+    return new Scanner(false);
+  }
+
+  /**
+   * Creates a scanner that also totals the time spent running each pattern, available from {@link Scanner#nanos(int)}.
+   */
+  public Scanner timedScanner() {
+    return new Scanner(true);
+  }
+
+  /**
+   * Receives each pattern found by {@link Scanner#scan(CharSequence, LineMatch)}, along with the line it was found on.
+   */
+  @FunctionalInterface
+  public interface LineMatch {
+    void found(int pattern, int lineNumber, int lineStart, int lineEnd);
+  }
+
+  public class Scanner {
+    private final Matcher[] matchers = new Matcher[patterns.length];
+
+    private final Matcher combinedMatcher = combined != null ? combined.matcher("") : null;
+
+    private final BitSet candidates = new BitSet(patterns.length);
+
+    private final long[] nanos;
+
+    private Scanner(boolean timed) {
+      for (int i = 0; i < patterns.length; i++) {
+        matchers[i] = patterns[i].matcher("");
+      }
+      nanos = timed ? new long[patterns.length] : null;
+    }
+
+    /**
+     * Returns the time spent running {@code pattern} against candidate lines so far, or 0 for an untimed scanner.
+     */
+    public long nanos(int pattern) {
+      return nanos == null ? 0 : nanos[pattern];
+    }
+
+    /**
+     * Reports every pattern found on each line of {@code text}, in line then configuration order. Lines are split the
+     * same way as {@link java.io.BufferedReader#readLine()}, and each pattern is matched against a region of
+     * {@code text} bounded by its line, so no per-line strings are created.
+     */
+    public void scan(CharSequence text, LineMatch onMatch) {
+      for (Matcher matcher : matchers) {
+        matcher.reset(text);
+      }
+      if (combinedMatcher != null) {
+        combinedMatcher.reset(text);
+      }
+
+      int length = text.length();
+      int lineNumber = 0;
+      int lineStart = 0;
+      while (lineStart < length) {
+        int lineEnd = lineStart;
+        while (lineEnd < length && text.charAt(lineEnd) != '\n' && text.charAt(lineEnd) != '\r') {
+          lineEnd++;
+        }
+        lineNumber++;
+        match(text, lineNumber, lineStart, lineEnd, onMatch);
+
+        lineStart = lineEnd + 1;
+        if (lineEnd + 1 < length && text.charAt(lineEnd) == '\r' && text.charAt(lineEnd + 1) == '\n') {
+          lineStart++;
+        }
+      }
+    }
+
+    private void match(CharSequence text, int lineNumber, int lineStart, int lineEnd, LineMatch onMatch) {
+      candidates.clear();
+      prefilter.scan(text, lineStart, lineEnd, candidates);
+      if (combinedMatcher == null || combinedMatcher.region(lineStart, lineEnd).find()) {
+        for (int index : unfiltered) {
+          candidates.set(index);
+        }
+      }
+      for (int index = candidates.nextSetBit(0); index >= 0; index = candidates.nextSetBit(index + 1)) {
+        long start = nanos != null ? System.nanoTime() : 0;
+        boolean found = matchers[index].region(lineStart, lineEnd).find();
+        if (nanos != null) {
+          nanos[index] += System.nanoTime() - start;
+        }
+        if (found) {
+          onMatch.found(index, lineNumber, lineStart, lineEnd);
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the literal text every match of {@code pattern} must start with, or an empty string when that can't be
+   * determined cheaply.
+   */
+  static String literalPrefix(String pattern) {
+    if (pattern.indexOf('|') != -1) {
+      return "";
+    }
+    StringBuilder literal = new StringBuilder();
+    int i = pattern.startsWith("^") ? 1 : 0;
+    while (i < pattern.length()) {
+      char c = pattern.charAt(i);
+      int next;
+      if (c == '\\') {
+        if (i + 1 >= pattern.length() || Character.isLetterOrDigit(pattern.charAt(i + 1))) {
+          break;
+        }
+        c = pattern.charAt(i + 1);
+        next = i + 2;
+      } else if (META_CHARACTERS.indexOf(c) != -1) {
+        break;
+      } else {
+        next = i + 1;
+      }
+      if (next < pattern.length() && QUANTIFIERS.indexOf(pattern.charAt(next)) != -1) {
+        if (pattern.charAt(next) == '+') {
+          literal.append(c);
+        }
+        break;
+      }
+      literal.append(c);
+      i = next;
+    }
+    return literal.toString();
+  }
+
+  /**
+   * An Aho-Corasick automaton over the literal prefixes, marking every pattern whose prefix occurs in a line.
+   */
+  private static class LiteralAutomaton {
+    private final char[][] keys;
+
+    private final int[][] targets;
+
+    private final int[] failure;
+
+    private final BitSet[] outputs;
+
+    LiteralAutomaton(List<String> literals, List<Integer> owners) {
+      List<TreeMap<Character, Integer>> gotos = new ArrayList<>();
+      List<BitSet> output = new ArrayList<>();
+      gotos.add(new TreeMap<>());
+      output.add(new BitSet());
+
+      for (int i = 0; i < literals.size(); i++) {
+        int state = 0;
+        for (char c : literals.get(i).toCharArray()) {
+          Integer next = gotos.get(state).get(c);
+          if (next == null) {
+            next = gotos.size();
+            gotos.add(new TreeMap<>());
+            output.add(new BitSet());
+            gotos.get(state).put(c, next);
+          }
+          state = next;
+        }
+        output.get(state).set(owners.get(i));
+      }
+
+      int states = gotos.size();
+      keys = new char[states][];
+      targets = new int[states][];
+      failure = new int[states];
+      outputs = output.toArray(new BitSet[0]);
+
+      for (int state = 0; state < states; state++) {
+        TreeMap<Character, Integer> transitions = gotos.get(state);
+        keys[state] = new char[transitions.size()];
+        targets[state] = new int[transitions.size()];
+        int t = 0;
+        for (Map.Entry<Character, Integer> transition : transitions.entrySet()) {
+          keys[state][t] = transition.getKey();
+          targets[state][t] = transition.getValue();
+          t++;
+        }
+      }
+
+      Deque<Integer> queue = new ArrayDeque<>();
+      for (int target : targets[0]) {
+        queue.add(target);
+      }
+      while (!queue.isEmpty()) {
+        int state = queue.poll();
+        for (int t = 0; t < keys[state].length; t++) {
+          int target = targets[state][t];
+          int fallback = failure[state];
+          int next;
+          while ((next = step(fallback, keys[state][t])) == -1 && fallback != 0) {
+            fallback = failure[fallback];
+          }
+          failure[target] = next == -1 || next == target ? 0 : next;
+          outputs[target].or(outputs[failure[target]]);
+          queue.add(target);
+        }
+      }
+    }
+
+    private int step(int state, char c) {
+      int t = Arrays.binarySearch(keys[state], c);
+      return t < 0 ? -1 : targets[state][t];
+    }
+
+    void scan(CharSequence text, int start, int end, BitSet found) {
+      if (keys[0].length == 0) {
+        return;
+      }
+      int state = 0;
+      for (int i = start; i < end; i++) {
+        char c = text.charAt(i);
+        int next;
+        while ((next = step(state, c)) == -1 && state != 0) {
+          state = failure[state];
+        }
+        state = next == -1 ? 0 : next;
+        if (!outputs[state].isEmpty()) {
+          found.or(outputs[state]);
+        }
+      }
+    }
+  }
+}
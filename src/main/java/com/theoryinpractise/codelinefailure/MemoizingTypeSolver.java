@@ -0,0 +1,46 @@
+package com.theoryinpractise.codelinefailure;
+
+import com.github.javaparser.resolution.TypeSolver;
+import com.github.javaparser.resolution.declarations.ResolvedReferenceTypeDeclaration;
+import com.github.javaparser.resolution.model.SymbolReference;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link TypeSolver} that remembers every answer from the solver it wraps, including failures, so each type name is
+ * only looked up once however many files refer to it. Safe to share between threads.
+ */
+public class MemoizingTypeSolver implements TypeSolver {
+  private final TypeSolver delegate;
+
+  private final Map<String, SymbolReference<ResolvedReferenceTypeDeclaration>> solved = new ConcurrentHashMap<>();
+
+  private TypeSolver parent;
+
+  public MemoizingTypeSolver(TypeSolver delegate) {
+    this.delegate = delegate;
+    delegate.setParent(this);
+  }
+
+  @Override
+  public TypeSolver getParent() {
+    return parent;
+  }
+
+  @Override
+  public void setParent(TypeSolver parent) {
+    this.parent = parent;
+  }
+
+  @Override
+  public SymbolReference<ResolvedReferenceTypeDeclaration> tryToSolveType(String name) {
+    // resolving one type can resolve others through this solver, so computeIfAbsent can't be used here
+    SymbolReference<ResolvedReferenceTypeDeclaration> reference = solved.get(name);
+    if (reference == null) {
+      reference = delegate.tryToSolveType(name);
+      solved.putIfAbsent(name, reference);
+    }
+    return reference;
+  }
+}
@@ -0,0 +1,108 @@
+package com.theoryinpractise.codelinefailure;
+
+import com.github.javaparser.ast.CompilationUnit;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+import java.util.Optional;
+
+/**
+ * A bounded, least-recently-used cache of parsed compilation units, keyed by file path and a hash of the source text.
+ *
+ * <p>The cache is weighed by the length of the cached sources, so a handful of very large files can't crowd out memory.
+ * The {@link ScanService} shares a single instance between every execution of the rule in a Maven session, so modules
+ * in a reactor build that check the same generated sources reuse each other's parses. Units keep the symbol resolver of
+ * the execution that first parsed them.
+ */
+public class ParseCache {
+  public static final long DEFAULT_MAX_WEIGHT = 4_000_000L;
+
+  private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+  private long maxWeight;
+
+  private long weight;
+
+  public ParseCache(long maxWeight) {
+    this.maxWeight = maxWeight;
+  }
+
+  public synchronized void resize(long maxWeight) {
+    this.maxWeight = maxWeight;
+    evict();
+  }
+
+  public Optional<CompilationUnit> get(File file, CharSequence source) {
+    Key key = new Key(file, source);
+    synchronized (this) {
+      Entry entry = entries.get(key);
+      return entry == null ? Optional.empty() : Optional.of(entry.compilationUnit);
+    }
+  }
+
+  public void put(File file, CharSequence source, CompilationUnit compilationUnit) {
+    Key key = new Key(file, source);
+    synchronized (this) {
+      if (source.length() > maxWeight) {
+        return;
+      }
+      Entry previous = entries.put(key, new Entry(compilationUnit, source.length()));
+      if (previous != null) {
+        weight -= previous.weight;
+      }
+      weight += source.length();
+      evict();
+    }
+  }
+
+  private void evict() {
+    Iterator<Entry> iterator = entries.values().iterator();
+    while (weight > maxWeight && iterator.hasNext()) {
+      weight -= iterator.next().weight;
+      iterator.remove();
+    }
+  }
+
+  private static class Key {
+    final String path;
+
+    final HashCode hash;
+
+    Key(File file, CharSequence source) {
+      this.path = file.getAbsolutePath();
+      this.hash = Hashing.murmur3_128().hashUnencodedChars(source);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) o;
+      return path.equals(key.path) && hash.equals(key.hash);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(path, hash);
+    }
+  }
+
+  private static class Entry {
+    final CompilationUnit compilationUnit;
+
+    final long weight;
+
+    Entry(CompilationUnit compilationUnit, long weight) {
+      this.compilationUnit = compilationUnit;
+      this.weight = weight;
+    }
+  }
+}
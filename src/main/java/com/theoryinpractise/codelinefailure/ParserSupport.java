@@ -1,26 +1,153 @@
 package com.theoryinpractise.codelinefailure;
 
 import com.github.javaparser.JavaParser;
-import com.github.javaparser.ParseResult;
+import com.github.javaparser.JavaToken;
+import com.github.javaparser.ParserConfiguration;
 import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.ImportDeclaration;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.TypeDeclaration;
+import com.github.javaparser.ast.expr.AnnotationExpr;
+import com.github.javaparser.resolution.MethodUsage;
+import com.github.javaparser.resolution.types.ResolvedReferenceType;
+import com.github.javaparser.symbolsolver.JavaSymbolSolver;
+import com.github.javaparser.symbolsolver.resolution.typesolvers.CombinedTypeSolver;
+import com.github.javaparser.symbolsolver.resolution.typesolvers.JavaParserTypeSolver;
+import com.github.javaparser.symbolsolver.resolution.typesolvers.ReflectionTypeSolver;
+
+import io.vavr.collection.HashSet;
+import io.vavr.collection.Set;
 
 import java.io.File;
-import java.io.FileNotFoundException;
+import java.io.Reader;
 import java.util.Optional;
 
 public class ParserSupport {
+  private static final Set<String> JAVA_LANG_ANNOTATIONS =
+      HashSet.of("Override", "Deprecated", "SuppressWarnings", "FunctionalInterface", "SafeVarargs");
+
+  private static final ParserConfiguration DEFAULT_CONFIGURATION = new ParserConfiguration();
+
+  private static final ThreadLocal<JavaParser> PARSERS = new ThreadLocal<>();
+
+  /**
+   * Builds a parser configuration whose symbol solver can see the given source roots as well as the classes available to
+   * this rule. The configuration, and the type solver cache behind it, is meant to be built once per rule execution
+   * and shared by every check.
+   */
+  public static ParserConfiguration parserConfiguration(Iterable<File> sourceRoots) {
+    CombinedTypeSolver typeSolver = new CombinedTypeSolver(new ReflectionTypeSolver(false));
+    for (File sourceRoot : sourceRoots) {
+      if (sourceRoot.isDirectory()) {
+        typeSolver.add(new JavaParserTypeSolver(sourceRoot));
+      }
+    }
+    return new ParserConfiguration().setSymbolResolver(new JavaSymbolSolver(new MemoizingTypeSolver(typeSolver)));
+  }
+
   public static Optional<CompilationUnit> parseCompilationUnit(String string) {
-    return new JavaParser().parse(string).getResult();
+    return parseCompilationUnit(string, DEFAULT_CONFIGURATION);
   }
 
-  public static Optional<CompilationUnit> parseCompilationUnit(File file) {
-    ParseResult<CompilationUnit> parseResult;
+  public static Optional<CompilationUnit> parseCompilationUnit(String string, ParserConfiguration configuration) {
+    return parser(configuration).parse(string).getResult();
+  }
+
+  public static Optional<CompilationUnit> parseCompilationUnit(Reader reader, ParserConfiguration configuration) {
+    return parser(configuration).parse(reader).getResult();
+  }
+
+  /**
+   * Returns this thread's parser for {@code configuration}, creating one only when the thread last parsed with a
+   * different configuration. Parsers are not thread safe, but can be reused for any number of files.
+   */
+  static JavaParser parser(ParserConfiguration configuration) {
+    JavaParser parser = PARSERS.get();
+    if (parser == null || parser.getParserConfiguration() != configuration) {
+      parser = new JavaParser(configuration);
+      PARSERS.set(parser);
+    }
+    return parser;
+  }
 
-    try {
-      parseResult = new JavaParser().parse(file);
-    } catch (FileNotFoundException e) {
-      throw new RuntimeException(e.getMessage(), e);
+  /**
+   * Returns the qualified name of {@code annotation}. Where the name is written qualified, explicitly imported or is
+   * from {@code java.lang} it is answered from the source alone; otherwise it falls back to the symbol solver, if the
+   * compilation unit was parsed with one.
+   */
+  public static Optional<String> qualifiedAnnotationName(AnnotationExpr annotation) {
+    String name = annotation.getNameAsString();
+    if (name.indexOf('.') != -1) {
+      return Optional.of(name);
     }
-    return parseResult.getResult();
+
+    Optional<CompilationUnit> compilationUnit = annotation.findCompilationUnit();
+    if (compilationUnit.isPresent()) {
+      for (ImportDeclaration importDeclaration : compilationUnit.get().getImports()) {
+        if (!importDeclaration.isStatic() && !importDeclaration.isAsterisk()
+            && importDeclaration.getName().getIdentifier().equals(name)) {
+          return Optional.of(importDeclaration.getNameAsString());
+        }
+      }
+    }
+
+    if (JAVA_LANG_ANNOTATIONS.contains(name)) {
+      return Optional.of("java.lang." + name);
+    }
+
+    if (compilationUnit.map(cu -> cu.containsData(Node.SYMBOL_RESOLVER_KEY)).orElse(false)) {
+      // units are shared between threads, and the solver's caches are not all thread safe
+      synchronized (compilationUnit.get().getData(Node.SYMBOL_RESOLVER_KEY)) {
+        try {
+          return Optional.of(annotation.resolve().getQualifiedName());
+        } catch (RuntimeException e) {
+          return Optional.empty();
+        }
+      }
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * Returns {@code name/arity} for every method declared by the supertypes of {@code type}, resolved with the symbol
+   * solver its compilation unit was parsed with. Empty when there is no solver, or any supertype can't be resolved.
+   */
+  static Optional<Set<String>> supertypeMethodSignatures(TypeDeclaration<?> type) {
+    Optional<CompilationUnit> compilationUnit = type.findCompilationUnit();
+    if (!compilationUnit.map(cu -> cu.containsData(Node.SYMBOL_RESOLVER_KEY)).orElse(false)) {
+      return Optional.empty();
+    }
+    synchronized (compilationUnit.get().getData(Node.SYMBOL_RESOLVER_KEY)) {
+      try {
+        Set<String> signatures = HashSet.empty();
+        for (ResolvedReferenceType ancestor : type.resolve().getAllAncestors()) {
+          for (MethodUsage method : ancestor.getDeclaredMethods()) {
+            signatures = signatures.add(method.getName() + "/" + method.getNoParams());
+          }
+        }
+        return Optional.of(signatures);
+      } catch (RuntimeException e) {
+        return Optional.empty();
+      }
+    }
+  }
+
+  /**
+   * Returns the start of {@code node}'s source text, as written, rebuilt from its tokens only up to the length a
+   * {@link Violation} snippet keeps, rather than pretty printing the whole node.
+   */
+  static String sourceSnippet(Node node) {
+    return node.getTokenRange()
+               .map(range -> {
+                 StringBuilder sb = new StringBuilder();
+                 for (JavaToken token : range) {
+                   if (sb.length() > Violation.MAX_SNIPPET_LENGTH) {
+                     break;
+                   }
+                   sb.append(token.getText());
+                 }
+                 return Violation.truncate(sb);
+               })
+               .orElse(null);
   }
 }
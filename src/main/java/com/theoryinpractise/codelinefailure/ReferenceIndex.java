@@ -0,0 +1,416 @@
+package com.theoryinpractise.codelinefailure;
+
+import com.github.javaparser.Position;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
+import com.github.javaparser.ast.body.EnumDeclaration;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.body.TypeDeclaration;
+import com.github.javaparser.ast.expr.AnnotationExpr;
+import com.github.javaparser.ast.expr.MethodCallExpr;
+import com.github.javaparser.ast.expr.MethodReferenceExpr;
+import com.github.javaparser.ast.visitor.VoidVisitorAdapter;
+
+import io.vavr.collection.List;
+import io.vavr.control.Validation;
+
+import org.apache.maven.enforcer.rule.api.EnforcerRuleException;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.theoryinpractise.codelinefailure.CheckUnusedPrivateFields.isBeanStyleMethod;
+import static com.theoryinpractise.codelinefailure.CheckUnusedPrivateFields.isOverriddenMethod;
+import static com.theoryinpractise.codelinefailure.CheckUnusedPrivateFields.isSuppressed;
+import static com.theoryinpractise.codelinefailure.CheckUnusedPrivateFields.isTestSetupMethod;
+import static com.theoryinpractise.codelinefailure.CheckUnusedPrivateFields.unusedMemberMessage;
+import static com.theoryinpractise.codelinefailure.CodelineFailureRule.relativePathOfFile;
+
+import static io.vavr.control.Validation.invalid;
+
+/**
+ * A project-wide index of method references, used to find public and package-private methods that nothing in the
+ * project's main or test sources calls.
+ *
+ * <p>Each file contributes the symbols it references and the candidate methods it declares; the AST is discarded as
+ * soon as they have been collected. Symbols are interned to ints so each file only retains small primitive arrays. The
+ * per-file symbols are persisted, keyed by size and modification time, so later builds only re-parse changed files.
+ *
+ * <p>A call contributes both its name and its name with its argument count, and a method reference contributes its name
+ * with a {@code ::} marker. A candidate method counts as used if any other method refers to it by name and arity, or by
+ * method reference, or, for varargs methods, by name alone.
+ */
+public class ReferenceIndex {
+  private static final int MAGIC = 0xC0DE1DE5;
+
+  private static final int FORMAT_VERSION = 2;
+
+  private static final Set<String> OBJECT_METHODS =
+      new HashSet<>(Arrays.asList("equals/1", "hashCode/0", "toString/0", "clone/0", "finalize/0"));
+
+  private final Path indexFile;
+
+  private final String fingerprint;
+
+  private final Map<String, FileSymbols> previous;
+
+  private final Map<String, FileSymbols> current = new ConcurrentHashMap<>();
+
+  private final Set<String> unindexed = ConcurrentHashMap.newKeySet();
+
+  private final Map<String, Integer> symbols = new ConcurrentHashMap<>();
+
+  private final AtomicInteger nextSymbol = new AtomicInteger();
+
+  private ReferenceIndex(Path indexFile, String fingerprint, Map<String, FileSymbols> previous) {
+    this.indexFile = indexFile;
+    this.fingerprint = fingerprint;
+    this.previous = previous;
+  }
+
+  public static ReferenceIndex load(Log log, Path indexFile, String fingerprint) {
+    ReferenceIndex index = new ReferenceIndex(indexFile, fingerprint, new ConcurrentHashMap<>());
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(indexFile)))) {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !fingerprint.equals(in.readUTF())) {
+        log.debug("Discarding reference index " + indexFile + " written for a different configuration");
+        return index;
+      }
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        String path = in.readUTF();
+        index.previous.put(path, index.readSymbols(in));
+      }
+    } catch (NoSuchFileException e) {
+      log.debug("No reference index found at " + indexFile);
+    } catch (IOException | RuntimeException e) {
+      log.debug("Discarding unreadable reference index " + indexFile + ": " + e.getMessage());
+      index.previous.clear();
+    }
+    return index;
+  }
+
+  private int intern(String symbol) {
+    return symbols.computeIfAbsent(symbol, s -> nextSymbol.getAndIncrement());
+  }
+
+  /**
+   * Adds the references and candidate declarations of {@code source}, reusing the persisted entry when the file is
+   * unchanged. Safe to call from several threads at once.
+   */
+  public void collect(SourceFile source) throws IOException {
+    File file = source.getFile();
+    String path = file.getAbsolutePath();
+    long size = file.length();
+    long lastModified = file.lastModified();
+
+    FileSymbols known = previous.get(path);
+    if (known != null && known.size == size && known.lastModified == lastModified) {
+      current.put(path, known);
+      unindexed.remove(path);
+      return;
+    }
+
+    Optional<CompilationUnit> compilationUnit = source.getCompilationUnit();
+    Collector collector = new Collector();
+    compilationUnit.ifPresent(cu -> cu.accept(collector, null));
+    current.put(path, collector.toSymbols(size, lastModified));
+    unindexed.remove(path);
+  }
+
+  /**
+   * Records that the references of {@code file} could not be collected, as when it was too large or too slow to parse,
+   * so any method might be called from it.
+   */
+  public void unindexed(File file) {
+    String path = file.getAbsolutePath();
+    current.remove(path);
+    unindexed.add(path);
+  }
+
+  /**
+   * Drops everything collected from {@code file}, for when it has been deleted.
+   */
+  public void forget(File file) {
+    String path = file.getAbsolutePath();
+    current.remove(path);
+    previous.remove(path);
+    unindexed.remove(path);
+  }
+
+  /**
+   * Returns the {@link #unusedMethods()} to report as violations. When some files could not be indexed, a method may
+   * be called only from them, so the unused methods are instead logged as warnings and none are returned.
+   */
+  public List<Validation<EnforcerRuleException, File>> unusedMethods(Log log) {
+    List<Validation<EnforcerRuleException, File>> unusedMethods = unusedMethods();
+    if (unindexed.isEmpty()) {
+      return unusedMethods;
+    }
+    java.util.List<String> paths = new ArrayList<>(unindexed);
+    paths.sort(Comparator.naturalOrder());
+    log.warn(String.format(
+        "Not failing on project-wide unused methods, as %d files could not be indexed for references: %s",
+        paths.size(),
+        String.join(", ", paths)));
+    for (Validation<EnforcerRuleException, File> unusedMethod : unusedMethods) {
+      log.warn("    Possibly unused: " + unusedMethod.getError().getMessage());
+    }
+    return List.empty();
+  }
+
+  /**
+   * Returns a violation for every candidate method that no other method in the indexed files refers to, ordered by file
+   * and position.
+   */
+  public List<Validation<EnforcerRuleException, File>> unusedMethods() {
+    int[] referenceCounts = new int[nextSymbol.get()];
+    for (FileSymbols fileSymbols : current.values()) {
+      for (int reference : fileSymbols.references) {
+        referenceCounts[reference]++;
+      }
+    }
+
+    java.util.List<Map.Entry<String, FileSymbols>> files = new ArrayList<>(current.entrySet());
+    files.sort(Map.Entry.comparingByKey());
+
+    java.util.List<Validation<EnforcerRuleException, File>> validations = new ArrayList<>();
+    for (Map.Entry<String, FileSymbols> entry : files) {
+      File file = new File(entry.getKey());
+      Declaration[] declarations = entry.getValue().declarations.clone();
+      Arrays.sort(declarations, Comparator.comparingInt((Declaration d) -> d.line).thenComparingInt(d -> d.column));
+      for (Declaration declaration : declarations) {
+        if (!isReferenced(declaration, referenceCounts)) {
+          validations.add(invalid(new Violation(
+              "projectWideUnused",
+              file,
+              declaration.line,
+              declaration.column,
+              relativePathOfFile(file),
+              unusedMemberMessage(file, declaration.line, declaration.column, declaration.name),
+              "")));
+        }
+      }
+    }
+    return List.ofAll(validations);
+  }
+
+  private boolean isReferenced(Declaration declaration, int[] referenceCounts) {
+    return isCounted(declaration.name + "::", referenceCounts)
+        || (declaration.varargs
+                ? isCounted(declaration.name, referenceCounts)
+                : isCounted(declaration.name + "/" + declaration.arity, referenceCounts));
+  }
+
+  private boolean isCounted(String symbol, int[] referenceCounts) {
+    Integer id = symbols.get(symbol);
+    return id != null && referenceCounts[id] > 0;
+  }
+
+  /**
+   * Writes the symbols of every file collected during this run, dropping those for files that no longer exist.
+   */
+  public void save(Log log) {
+    String[] names = new String[nextSymbol.get()];
+    symbols.forEach((symbol, id) -> names[id] = symbol);
+    try {
+      Files.createDirectories(indexFile.getParent());
+      Path temp = Files.createTempFile(indexFile.getParent(), indexFile.getFileName().toString(), ".tmp");
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(fingerprint);
+        out.writeInt(current.size());
+        for (Map.Entry<String, FileSymbols> entry : current.entrySet()) {
+          out.writeUTF(entry.getKey());
+          writeSymbols(out, entry.getValue(), names);
+        }
+      }
+      Files.move(temp, indexFile, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      log.warn("Unable to write reference index " + indexFile + ": " + e.getMessage());
+    }
+  }
+
+  private FileSymbols readSymbols(DataInputStream in) throws IOException {
+    long size = in.readLong();
+    long lastModified = in.readLong();
+    int[] references = new int[in.readInt()];
+    for (int i = 0; i < references.length; i++) {
+      references[i] = intern(in.readUTF());
+    }
+    Declaration[] declarations = new Declaration[in.readInt()];
+    for (int i = 0; i < declarations.length; i++) {
+      declarations[i] = new Declaration(in.readUTF().intern(), in.readInt(), in.readBoolean(), in.readInt(), in.readInt());
+    }
+    return new FileSymbols(size, lastModified, references, declarations);
+  }
+
+  private static void writeSymbols(DataOutputStream out, FileSymbols fileSymbols, String[] names) throws IOException {
+    out.writeLong(fileSymbols.size);
+    out.writeLong(fileSymbols.lastModified);
+    out.writeInt(fileSymbols.references.length);
+    for (int reference : fileSymbols.references) {
+      out.writeUTF(names[reference]);
+    }
+    out.writeInt(fileSymbols.declarations.length);
+    for (Declaration declaration : fileSymbols.declarations) {
+      out.writeUTF(declaration.name);
+      out.writeInt(declaration.arity);
+      out.writeBoolean(declaration.varargs);
+      out.writeInt(declaration.line);
+      out.writeInt(declaration.column);
+    }
+  }
+
+  /**
+   * Whether {@code method} should be reported when nothing refers to it. Methods that may be called by a framework,
+   * overriding methods, bean accessors, {@code main} and abstract or anonymous class members are left alone.
+   */
+  static boolean isCandidate(MethodDeclaration method) {
+    if (method.isPrivate() || !method.getBody().isPresent()) {
+      return false;
+    }
+    Optional<Node> parent = method.getParentNode();
+    if (!parent.isPresent() || !(parent.get() instanceof ClassOrInterfaceDeclaration || parent.get() instanceof EnumDeclaration)) {
+      return false;
+    }
+    if (method.isStatic() && "main".equals(method.getNameAsString())) {
+      return false;
+    }
+    for (AnnotationExpr annotation : method.getAnnotations()) {
+      String name = annotation.getNameAsString();
+      if (!"SuppressWarnings".equals(name) && !"Deprecated".equals(name)) {
+        return false;
+      }
+    }
+    return !isOverriddenMethod(method) && !isBeanStyleMethod(method) && !isSuppressed(method) && !isTestSetupMethod(method);
+  }
+
+  /**
+   * Whether {@code method} has the name and parameter count of a method declared by a supertype of {@code type}, so may
+   * be called through it without an {@code @Override} saying so. When the supertypes can't be resolved it is assumed to.
+   */
+  private static boolean matchesSupertype(
+      MethodDeclaration method, TypeDeclaration<?> type, Map<TypeDeclaration<?>, Optional<io.vavr.collection.Set<String>>> known) {
+    String signature = method.getNameAsString() + "/" + method.getParameters().size();
+    if (OBJECT_METHODS.contains(signature)) {
+      return true;
+    }
+    boolean hasSupertypes = type instanceof ClassOrInterfaceDeclaration
+        ? !((ClassOrInterfaceDeclaration) type).getExtendedTypes().isEmpty()
+          || !((ClassOrInterfaceDeclaration) type).getImplementedTypes().isEmpty()
+        : !((EnumDeclaration) type).getImplementedTypes().isEmpty();
+    if (!hasSupertypes) {
+      return false;
+    }
+    return known.computeIfAbsent(type, ParserSupport::supertypeMethodSignatures)
+               .map(signatures -> signatures.contains(signature))
+               .orElse(true);
+  }
+
+  private class Collector extends VoidVisitorAdapter<Void> {
+    private final Set<Integer> references = new HashSet<>();
+
+    private final java.util.List<Declaration> declarations = new ArrayList<>();
+
+    private final Deque<MethodDeclaration> methods = new ArrayDeque<>();
+
+    private final Map<TypeDeclaration<?>, Optional<io.vavr.collection.Set<String>>> supertypeSignatures =
+        new IdentityHashMap<>();
+
+    @Override
+    public void visit(MethodDeclaration n, Void arg) {
+      if (isCandidate(n) && !matchesSupertype(n, (TypeDeclaration<?>) n.getParentNode().get(), supertypeSignatures)) {
+        Position begin = n.getBegin().orElse(Position.HOME);
+        int parameters = n.getParameters().size();
+        boolean varargs = parameters > 0 && n.getParameter(parameters - 1).isVarArgs();
+        declarations.add(new Declaration(n.getNameAsString().intern(), parameters, varargs, begin.line, begin.column));
+      }
+      methods.push(n);
+      super.visit(n, arg);
+      methods.pop();
+    }
+
+    @Override
+    public void visit(MethodCallExpr n, Void arg) {
+      super.visit(n, arg);
+      if (!UsageIndex.isRecursiveCall(n, methods.peek())) {
+        references.add(intern(n.getNameAsString()));
+        references.add(intern(n.getNameAsString() + "/" + n.getArguments().size()));
+      }
+    }
+
+    @Override
+    public void visit(MethodReferenceExpr n, Void arg) {
+      super.visit(n, arg);
+      references.add(intern(n.getIdentifier() + "::"));
+    }
+
+    FileSymbols toSymbols(long size, long lastModified) {
+      return new FileSymbols(
+          size,
+          lastModified,
+          references.stream().mapToInt(Integer::intValue).toArray(),
+          declarations.toArray(new Declaration[0]));
+    }
+  }
+
+  private static class FileSymbols {
+    final long size;
+
+    final long lastModified;
+
+    final int[] references;
+
+    final Declaration[] declarations;
+
+    FileSymbols(long size, long lastModified, int[] references, Declaration[] declarations) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.references = references;
+      this.declarations = declarations;
+    }
+  }
+
+  private static class Declaration {
+    final String name;
+
+    final int arity;
+
+    final boolean varargs;
+
+    final int line;
+
+    final int column;
+
+    Declaration(String name, int arity, boolean varargs, int line, int column) {
+      this.name = name;
+      this.arity = arity;
+      this.varargs = varargs;
+      this.line = line;
+      this.column = column;
+    }
+  }
+}
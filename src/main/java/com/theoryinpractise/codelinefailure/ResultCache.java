@@ -0,0 +1,247 @@
+package com.theoryinpractise.codelinefailure;
+
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+import io.vavr.control.Validation;
+
+import org.apache.maven.enforcer.rule.api.EnforcerRuleException;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static io.vavr.control.Validation.invalid;
+import static io.vavr.control.Validation.valid;
+
+/**
+ * An on-disk cache of the violations found in each file, so unchanged files are skipped on the next build.
+ *
+ * <p>Entries are keyed by the file's path, size and modification time, and the whole cache is tied to a fingerprint of
+ * the rule configuration and plugin version. A cache written with a different fingerprint, or one that can't be read,
+ * is discarded and rebuilt.
+ */
+public class ResultCache {
+  private static final int MAGIC = 0xC0DE11E5;
+
+  private static final int FORMAT_VERSION = 2;
+
+  private final Path cacheFile;
+
+  private final String fingerprint;
+
+  private final Map<String, Entry> previous;
+
+  private final Map<String, Entry> current = new ConcurrentHashMap<>();
+
+  private ResultCache(Path cacheFile, String fingerprint, Map<String, Entry> previous) {
+    this.cacheFile = cacheFile;
+    this.fingerprint = fingerprint;
+    this.previous = previous;
+  }
+
+  public static ResultCache load(Log log, Path cacheFile, String fingerprint) {
+    Map<String, Entry> entries = new ConcurrentHashMap<>();
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(cacheFile)))) {
+      if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION || !fingerprint.equals(in.readUTF())) {
+        log.debug("Discarding result cache " + cacheFile + " written for a different configuration");
+        return new ResultCache(cacheFile, fingerprint, entries);
+      }
+      int count = in.readInt();
+      for (int i = 0; i < count; i++) {
+        String path = in.readUTF();
+        entries.put(path, Entry.read(in));
+      }
+    } catch (NoSuchFileException e) {
+      log.debug("No result cache found at " + cacheFile);
+    } catch (IOException | RuntimeException e) {
+      log.debug("Discarding unreadable result cache " + cacheFile + ": " + e.getMessage());
+      entries.clear();
+    }
+    return new ResultCache(cacheFile, fingerprint, entries);
+  }
+
+  /**
+   * Returns the cached results for {@code file}, if it hasn't changed since they were stored, whether by an earlier
+   * build or by an earlier execution sharing this cache.
+   */
+  public Option<List<Validation<EnforcerRuleException, File>>> lookup(File file) {
+    String path = file.getAbsolutePath();
+    Entry entry = entry(path);
+    if (entry == null || entry.size != file.length() || entry.lastModified != file.lastModified()) {
+      return Option.none();
+    }
+    current.put(path, entry);
+    return Option.some(entry.toValidations(file));
+  }
+
+  /**
+   * Keeps any entry for {@code file} without checking it is still current, for files this run skipped.
+   */
+  public void retain(File file) {
+    String path = file.getAbsolutePath();
+    Entry entry = entry(path);
+    if (entry != null) {
+      current.put(path, entry);
+    }
+  }
+
+  private Entry entry(String path) {
+    Entry entry = current.get(path);
+    return entry != null ? entry : previous.get(path);
+  }
+
+  public void store(File file, long size, long lastModified, List<Validation<EnforcerRuleException, File>> validations) {
+    current.put(file.getAbsolutePath(), Entry.of(size, lastModified, validations));
+  }
+
+  /**
+   * Writes the entries looked up or stored during this run, dropping those for files that no longer exist.
+   */
+  public void save(Log log) {
+    try {
+      Files.createDirectories(cacheFile.getParent());
+      Path temp = Files.createTempFile(cacheFile.getParent(), cacheFile.getFileName().toString(), ".tmp");
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(fingerprint);
+        out.writeInt(current.size());
+        for (Map.Entry<String, Entry> entry : current.entrySet()) {
+          out.writeUTF(entry.getKey());
+          entry.getValue().write(out);
+        }
+      }
+      Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      log.warn("Unable to write result cache " + cacheFile + ": " + e.getMessage());
+    }
+  }
+
+  private static class Entry {
+    final long size;
+
+    final long lastModified;
+
+    final List<CachedViolation> violations;
+
+    Entry(long size, long lastModified, List<CachedViolation> violations) {
+      this.size = size;
+      this.lastModified = lastModified;
+      this.violations = violations;
+    }
+
+    static Entry of(long size, long lastModified, List<Validation<EnforcerRuleException, File>> validations) {
+      return new Entry(
+          size,
+          lastModified,
+          validations.filter(Validation::isInvalid).map(Validation::getError).map(CachedViolation::of));
+    }
+
+    List<Validation<EnforcerRuleException, File>> toValidations(File file) {
+      if (violations.isEmpty()) {
+        return List.of(valid(file));
+      }
+      return violations.map(v -> invalid(v.toException()));
+    }
+
+    static Entry read(DataInputStream in) throws IOException {
+      long size = in.readLong();
+      long lastModified = in.readLong();
+      int count = in.readInt();
+      List<CachedViolation> violations = List.empty();
+      for (int i = 0; i < count; i++) {
+        violations = violations.append(new CachedViolation(
+            readNullable(in), readNullable(in), in.readInt(), in.readInt(), readNullable(in), readNullable(in), readNullable(in)));
+      }
+      return new Entry(size, lastModified, violations);
+    }
+
+    void write(DataOutputStream out) throws IOException {
+      out.writeLong(size);
+      out.writeLong(lastModified);
+      out.writeInt(violations.size());
+      for (CachedViolation violation : violations) {
+        writeNullable(out, violation.rule);
+        writeNullable(out, violation.path);
+        out.writeInt(violation.line);
+        out.writeInt(violation.column);
+        writeNullable(out, violation.source);
+        writeNullable(out, violation.message);
+        writeNullable(out, violation.longMessage);
+      }
+    }
+  }
+
+  private static class CachedViolation {
+    final String rule;
+
+    final String path;
+
+    final int line;
+
+    final int column;
+
+    final String source;
+
+    final String message;
+
+    final String longMessage;
+
+    CachedViolation(String rule, String path, int line, int column, String source, String message, String longMessage) {
+      this.rule = rule;
+      this.path = path;
+      this.line = line;
+      this.column = column;
+      this.source = source;
+      this.message = message;
+      this.longMessage = longMessage;
+    }
+
+    static CachedViolation of(EnforcerRuleException e) {
+      String source = e.getSource() == null ? null : e.getSource().toString();
+      if (e instanceof Violation) {
+        Violation v = (Violation) e;
+        return new CachedViolation(v.getRule(), v.getPath(), v.getLine(), v.getColumn(), source, v.getMessage(), v.getSnippet());
+      }
+      return new CachedViolation("error", null, 0, 0, source, e.getMessage(), e.getLongMessage());
+    }
+
+    EnforcerRuleException toException() {
+      return new Violation(rule, path, line, column, source, message, longMessage);
+    }
+  }
+
+  private static String readNullable(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    if (length > in.available()) {
+      throw new IOException("Truncated result cache entry");
+    }
+    byte[] bytes = new byte[length];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private static void writeNullable(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+    } else {
+      byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+      out.writeInt(bytes.length);
+      out.write(bytes);
+    }
+  }
+}
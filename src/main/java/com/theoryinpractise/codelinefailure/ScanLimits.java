@@ -0,0 +1,103 @@
+package com.theoryinpractise.codelinefailure;
+
+import io.vavr.collection.List;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-file guards keeping the time and memory spent on any one file bounded: files over a size limit, and binary files,
+ * are skipped; files over a lower limit are kept from the checks that parse them; and work on a file that runs past its
+ * time budget is abandoned with a warning.
+ *
+ * <p>A limit of zero or less turns that guard off.
+ */
+public class ScanLimits {
+  public static final long DEFAULT_MAX_FILE_SIZE = 10_000_000L;
+
+  public static final long DEFAULT_MAX_PARSED_FILE_SIZE = 1_000_000L;
+
+  public static final int DEFAULT_TIME_BUDGET_MILLIS = 30_000;
+
+  private final Log log;
+
+  private final long maxFileSize;
+
+  private final long maxParsedFileSize;
+
+  private final boolean skipBinaryFiles;
+
+  private final long timeBudgetMillis;
+
+  public ScanLimits(Log log, long maxFileSize, long maxParsedFileSize, boolean skipBinaryFiles, long timeBudgetMillis) {
+    this.log = log;
+    this.maxFileSize = maxFileSize;
+    this.maxParsedFileSize = maxParsedFileSize;
+    this.skipBinaryFiles = skipBinaryFiles;
+    this.timeBudgetMillis = timeBudgetMillis;
+  }
+
+  /**
+   * Starts the time budget for {@code source}, if there is one.
+   */
+  public void startTimeBudget(SourceFile source) {
+    if (timeBudgetMillis > 0) {
+      source.startTimeBudget(TimeUnit.MILLISECONDS.toNanos(timeBudgetMillis));
+    }
+  }
+
+  /**
+   * Returns true if {@code source} should be checked at all. A file that can't be read is let through, for the checks
+   * to report.
+   */
+  public boolean isCheckable(SourceFile source) {
+    File file = source.getFile();
+    long size = file.length();
+    if (maxFileSize > 0 && size > maxFileSize) {
+      log.info(String.format("Skipping %s: %d bytes is over the maxFileSize of %d", file.getPath(), size, maxFileSize));
+      return false;
+    }
+    try {
+      if (skipBinaryFiles && source.isBinary()) {
+        log.info("Skipping binary file " + file.getPath());
+        return false;
+      }
+    } catch (IOException e) {
+      return true;
+    }
+    return true;
+  }
+
+  /**
+   * Returns true if {@code file} is small enough to be parsed.
+   */
+  public boolean isParseable(File file) {
+    return maxParsedFileSize <= 0 || file.length() <= maxParsedFileSize;
+  }
+
+  /**
+   * Limits {@code check}, which parses the files it is given, to files within the maxParsedFileSize.
+   */
+  public SourceCheck parsed(String name, SourceCheck check) {
+    return source -> {
+      File file = source.getFile();
+      if (isParseable(file)) {
+        return check.check(source);
+      }
+      log.info(String.format(
+          "Not running %s on %s: %d bytes is over the maxParsedFileSize of %d",
+          name,
+          file.getPath(),
+          file.length(),
+          maxParsedFileSize));
+      return List.empty();
+    };
+  }
+
+  public void abandoned(File file) {
+    log.warn(String.format("Abandoned checking %s after it ran past the time budget of %d ms", file.getPath(), timeBudgetMillis));
+  }
+}
@@ -0,0 +1,244 @@
+package com.theoryinpractise.codelinefailure;
+
+import io.vavr.collection.List;
+import io.vavr.control.Validation;
+
+import org.apache.maven.enforcer.rule.api.EnforcerRuleException;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and timers for a single execution of the rule: files and bytes scanned, time spent reading and parsing, time
+ * and violations for each check and each line pattern, and the slowest files.
+ *
+ * <p>Counters are safe to update from the scanning threads. Times other than the wall time are summed over those
+ * threads, and the time of a check excludes any reading or parsing it triggered. The {@link #DISABLED} instance records
+ * nothing, and when it is in use checks are not wrapped for timing at all.
+ */
+public class ScanMetrics {
+  public static final ScanMetrics DISABLED = new ScanMetrics(false);
+
+  private static final int SLOWEST_FILES = 10;
+
+  private final boolean enabled;
+
+  private final long startNanos = System.nanoTime();
+
+  private final LongAdder files = new LongAdder();
+
+  private final LongAdder bytes = new LongAdder();
+
+  private final LongAdder cachedFiles = new LongAdder();
+
+  private final LongAdder fileNanos = new LongAdder();
+
+  private final LongAdder readNanos = new LongAdder();
+
+  private final LongAdder parseNanos = new LongAdder();
+
+  private final Map<String, Timer> checks = new ConcurrentHashMap<>();
+
+  private final Map<String, Timer> patterns = new ConcurrentHashMap<>();
+
+  private final PriorityQueue<FileTime> slowest = new PriorityQueue<>(Comparator.comparingLong(f -> f.nanos));
+
+  private ScanMetrics(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  public static ScanMetrics start() {
+    return new ScanMetrics(true);
+  }
+
+  public boolean isEnabled() {
+    return enabled;
+  }
+
+  /**
+   * Wraps {@code check} to record its time and violations under {@code name}, or returns it as is when disabled.
+   */
+  public SourceCheck timed(String name, SourceCheck check) {
+    if (!enabled) {
+      return check;
+    }
+    Timer timer = checks.computeIfAbsent(name, key -> new Timer());
+    return source -> {
+      long ioBefore = source.getReadNanos() + source.getParseNanos();
+      long start = System.nanoTime();
+      List<Validation<EnforcerRuleException, File>> results = check.check(source);
+      long io = source.getReadNanos() + source.getParseNanos() - ioBefore;
+      timer.record(System.nanoTime() - start - io, results.count(Validation::isInvalid));
+      return results;
+    };
+  }
+
+  /**
+   * Records a file having been processed, from when {@code startNanos} was taken.
+   */
+  public void fileScanned(SourceFile source, long startNanos) {
+    if (!enabled) {
+      return;
+    }
+    long nanos = System.nanoTime() - startNanos;
+    files.increment();
+    bytes.add(source.getFile().length());
+    fileNanos.add(nanos);
+    readNanos.add(source.getReadNanos());
+    parseNanos.add(source.getParseNanos());
+    synchronized (slowest) {
+      if (slowest.size() < SLOWEST_FILES || slowest.peek().nanos < nanos) {
+        slowest.add(new FileTime(source.getFile().getPath(), nanos));
+        if (slowest.size() > SLOWEST_FILES) {
+          slowest.poll();
+        }
+      }
+    }
+  }
+
+  public void fileCached() {
+    if (enabled) {
+      cachedFiles.increment();
+    }
+  }
+
+  /**
+   * Adds the per-pattern times and matches from a scanner that has just scanned one file.
+   */
+  public void patternsScanned(LinePatterns linePatterns, LinePatterns.Scanner scanner, int[] matches) {
+    if (!enabled) {
+      return;
+    }
+    for (int i = 0; i < linePatterns.size(); i++) {
+      patterns.computeIfAbsent(linePatterns.source(i), key -> new Timer()).record(scanner.nanos(i), matches[i]);
+    }
+  }
+
+  /**
+   * Records violations found outside of the per-file checks, such as unused public methods found project wide.
+   */
+  public void violationsFound(String name, int violations) {
+    if (enabled) {
+      checks.computeIfAbsent(name, key -> new Timer()).record(0, violations);
+    }
+  }
+
+  public void summarize(Log log) {
+    if (!enabled) {
+      return;
+    }
+    log.info(String.format(
+        "Code enforcer scanned %d files (%d KB) in %d ms, %d from the result cache or pre-scan",
+        files.sum(),
+        bytes.sum() / 1024,
+        millis(System.nanoTime() - startNanos),
+        cachedFiles.sum()));
+    log.info(String.format(
+        "  reading %d ms, parsing %d ms, processing files %d ms (summed over threads)",
+        millis(readNanos.sum()),
+        millis(parseNanos.sum()),
+        millis(fileNanos.sum())));
+    checks.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(e -> log.info(String.format(
+        "  check %s: %d ms, %d violations", e.getKey(), millis(e.getValue().nanos.sum()), e.getValue().count.sum())));
+    patterns.entrySet().stream().sorted(Map.Entry.comparingByKey()).forEach(e -> log.info(String.format(
+        "  pattern %s: %d ms, %d matches", e.getKey(), millis(e.getValue().nanos.sum()), e.getValue().count.sum())));
+    for (FileTime file : slowestFiles()) {
+      log.info(String.format("  slow file %s: %d ms", file.path, millis(file.nanos)));
+    }
+  }
+
+  /**
+   * Writes the metrics as a JSON object to {@code file}, creating its directory if needed.
+   */
+  public void write(Path file) throws IOException {
+    if (!enabled) {
+      return;
+    }
+    Files.createDirectories(file.toAbsolutePath().getParent());
+    try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+      out.write("{\n");
+      out.write(String.format("  \"files\": %d,\n", files.sum()));
+      out.write(String.format("  \"bytes\": %d,\n", bytes.sum()));
+      out.write(String.format("  \"cachedFiles\": %d,\n", cachedFiles.sum()));
+      out.write(String.format("  \"wallMillis\": %d,\n", millis(System.nanoTime() - startNanos)));
+      out.write(String.format("  \"fileMillis\": %d,\n", millis(fileNanos.sum())));
+      out.write(String.format("  \"readMillis\": %d,\n", millis(readNanos.sum())));
+      out.write(String.format("  \"parseMillis\": %d,\n", millis(parseNanos.sum())));
+      out.write("  \"checks\": ");
+      writeTimers(out, checks, "violations");
+      out.write(",\n  \"patterns\": ");
+      writeTimers(out, patterns, "matches");
+      out.write(",\n  \"slowestFiles\": [");
+      String separator = "\n";
+      for (FileTime slow : slowestFiles()) {
+        out.write(String.format("%s    {\"path\": %s, \"millis\": %d}", separator, Json.quote(slow.path), millis(slow.nanos)));
+        separator = ",\n";
+      }
+      out.write("\n  ]\n}\n");
+    }
+  }
+
+  private static void writeTimers(Writer out, Map<String, Timer> timers, String countName) throws IOException {
+    out.write("{");
+    String separator = "\n";
+    for (Map.Entry<String, Timer> entry : new TreeMap<>(timers).entrySet()) {
+      out.write(String.format(
+          "%s    %s: {\"millis\": %d, \"%s\": %d}",
+          separator,
+          Json.quote(entry.getKey()),
+          millis(entry.getValue().nanos.sum()),
+          countName,
+          entry.getValue().count.sum()));
+      separator = ",\n";
+    }
+    out.write("\n  }");
+  }
+
+  private java.util.List<FileTime> slowestFiles() {
+    java.util.List<FileTime> files;
+    synchronized (slowest) {
+      files = new ArrayList<>(slowest);
+    }
+    files.sort(Comparator.comparingLong((FileTime f) -> f.nanos).reversed());
+    return files;
+  }
+
+  private static long millis(long nanos) {
+    return TimeUnit.NANOSECONDS.toMillis(nanos);
+  }
+
+  private static class Timer {
+    final LongAdder nanos = new LongAdder();
+
+    final LongAdder count = new LongAdder();
+
+    void record(long elapsed, int found) {
+      nanos.add(elapsed);
+      count.add(found);
+    }
+  }
+
+  private static class FileTime {
+    final String path;
+
+    final long nanos;
+
+    FileTime(String path, long nanos) {
+      this.path = path;
+      this.nanos = nanos;
+    }
+  }
+}
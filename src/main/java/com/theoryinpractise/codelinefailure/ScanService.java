@@ -0,0 +1,215 @@
+package com.theoryinpractise.codelinefailure;
+
+import com.github.javaparser.ParserConfiguration;
+
+import io.vavr.Function1;
+import io.vavr.collection.List;
+import io.vavr.control.Validation;
+
+import org.apache.maven.enforcer.rule.api.EnforcerRuleException;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+/**
+ * State shared by every execution of the rule in a Maven session: compiled checks, parser configurations, the parse
+ * cache, loaded result caches and the results of a reactor-wide pre-scan. Safe for modules built in parallel.
+ *
+ * <p>Parallel builds give each module a copy of the session, so services are keyed by the execution request the copies
+ * share, and are discarded along with it. Without a session each execution gets a service of its own.
+ */
+public class ScanService {
+  private static final Map<Object, ScanService> SERVICES = new WeakHashMap<>();
+
+  private final Map<String, Object> compiled = new ConcurrentHashMap<>();
+
+  private final Map<String, ResultCache> resultCaches = new ConcurrentHashMap<>();
+
+  private final Map<String, CompletableFuture<List<Validation<EnforcerRuleException, File>>>> preScanned =
+      new ConcurrentHashMap<>();
+
+  private final Set<File> startedModules = ConcurrentHashMap.newKeySet();
+
+  private final Map<File, java.util.List<String>> preScannedModules = new ConcurrentHashMap<>();
+
+  private final AtomicBoolean preScanStarted = new AtomicBoolean();
+
+  private ParseCache parseCache;
+
+  private ForkJoinPool preScanPool;
+
+  private int preScanPending;
+
+  ScanService() {
+  }
+
+  /**
+   * Returns the service for {@code session}, creating it for the first execution in the session.
+   */
+  public static ScanService forSession(MavenSession session) {
+    if (session == null || session.getRequest() == null) {
+      return new ScanService();
+    }
+    synchronized (SERVICES) {
+      return SERVICES.computeIfAbsent(session.getRequest(), key -> new ScanService());
+    }
+  }
+
+  /**
+   * Returns what {@code compile} built for {@code key}, calling it only for the first execution to ask.
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T compiled(String key, Supplier<T> compile) {
+    return (T) compiled.computeIfAbsent(key, k -> compile.get());
+  }
+
+  /**
+   * Returns the parser configuration for the given source roots, built once per distinct set of roots.
+   */
+  public ParserConfiguration parserConfiguration(List<File> sourceRoots) {
+    return compiled("parser\n" + sourceRoots.mkString("\n"), () -> ParserSupport.parserConfiguration(sourceRoots));
+  }
+
+  /**
+   * Returns the session's parse cache, bounded to {@code maxWeight} characters of source.
+   */
+  public synchronized ParseCache parseCache(long maxWeight) {
+    if (parseCache == null) {
+      parseCache = new ParseCache(maxWeight);
+    } else {
+      parseCache.resize(maxWeight);
+    }
+    return parseCache;
+  }
+
+  /**
+   * Returns the result cache stored at {@code cacheFile}, loading it for the first execution to use it.
+   */
+  public ResultCache resultCache(Log log, Path cacheFile, String fingerprint) {
+    return resultCaches.computeIfAbsent(
+        cacheFile.toAbsolutePath() + "\n" + fingerprint, key -> ResultCache.load(log, cacheFile, fingerprint));
+  }
+
+  /**
+   * Returns true for the one execution in the session that gets to start the pre-scan.
+   */
+  public boolean claimPreScan() {
+    return preScanStarted.compareAndSet(false, true);
+  }
+
+  /**
+   * Queues {@code files} of the module at {@code basedir} to be checked in the background with {@code process}, unless
+   * the module's own execution has already started. Results are kept until that execution takes them or finishes, so
+   * only a module that doesn't run the rule at all leaves them for the rest of the session. The pool is shut down as
+   * soon as its queue drains.
+   */
+  public synchronized void preScan(
+      File basedir,
+      String fingerprint,
+      java.util.List<File> files,
+      int threads,
+      Function1<File, List<Validation<EnforcerRuleException, File>>> process) {
+    if (startedModules.contains(basedir)) {
+      return;
+    }
+    java.util.List<String> keys = preScannedModules.computeIfAbsent(basedir, module -> new ArrayList<>());
+    for (File file : files) {
+      String key = key(fingerprint, file);
+      CompletableFuture<List<Validation<EnforcerRuleException, File>>> result = new CompletableFuture<>();
+      if (preScanned.putIfAbsent(key, result) == null) {
+        keys.add(key);
+        preScanPending++;
+        if (preScanPool == null) {
+          preScanPool = new ForkJoinPool(threads);
+        }
+        preScanPool.execute(() -> {
+          try {
+            if (!result.isDone()) {
+              result.complete(process.apply(file));
+            }
+          } catch (Throwable e) {
+            result.completeExceptionally(e);
+          } finally {
+            preScanDone();
+          }
+        });
+      }
+    }
+  }
+
+  private synchronized void preScanDone() {
+    if (--preScanPending == 0) {
+      preScanPool.shutdown();
+      preScanPool = null;
+    }
+  }
+
+  /**
+   * Returns true while pre-scanned files are still queued or being checked.
+   */
+  synchronized boolean preScanning() {
+    return preScanPool != null;
+  }
+
+  /**
+   * Marks the module at {@code basedir} as checking its own files, so the pre-scan doesn't queue any more of them.
+   */
+  public synchronized void moduleStarted(File basedir) {
+    startedModules.add(basedir);
+  }
+
+  /**
+   * Drops whatever the pre-scan checked for the module at {@code basedir} that its execution didn't take, such as files
+   * checked under another configuration, skipping any not yet started.
+   */
+  public synchronized void moduleFinished(File basedir) {
+    java.util.List<String> keys = preScannedModules.remove(basedir);
+    if (keys != null) {
+      for (String key : keys) {
+        CompletableFuture<List<Validation<EnforcerRuleException, File>>> result = preScanned.remove(key);
+        if (result != null) {
+          result.cancel(false);
+        }
+      }
+    }
+  }
+
+  /**
+   * Wraps {@code process} to take each file's results from the pre-scan when it has them, waiting for it to finish the
+   * file if need be. Files the pre-scan hasn't queued are checked as usual.
+   */
+  public Function1<File, List<Validation<EnforcerRuleException, File>>> preScanned(
+      String fingerprint, Function1<File, List<Validation<EnforcerRuleException, File>>> process, ScanMetrics metrics) {
+    return file -> {
+      CompletableFuture<List<Validation<EnforcerRuleException, File>>> result = preScanned.remove(key(fingerprint, file));
+      if (result == null) {
+        return process.apply(file);
+      }
+      metrics.fileCached();
+      try {
+        return result.join();
+      } catch (CompletionException e) {
+        if (e.getCause() instanceof RuntimeException) {
+          throw (RuntimeException) e.getCause();
+        }
+        throw e;
+      }
+    };
+  }
+
+  private static String key(String fingerprint, File file) {
+    return fingerprint + "\n" + file.getAbsolutePath();
+  }
+}
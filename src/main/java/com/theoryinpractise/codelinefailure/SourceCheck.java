@@ -0,0 +1,16 @@
+package com.theoryinpractise.codelinefailure;
+
+import io.vavr.collection.List;
+import io.vavr.control.Validation;
+
+import org.apache.maven.enforcer.rule.api.EnforcerRuleException;
+
+import java.io.File;
+
+/**
+ * A check applied to each {@link SourceFile} visited during a scan.
+ */
+@FunctionalInterface
+public interface SourceCheck {
+  List<Validation<EnforcerRuleException, File>> check(SourceFile source);
+}
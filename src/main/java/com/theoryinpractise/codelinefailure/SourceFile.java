@@ -0,0 +1,270 @@
+package com.theoryinpractise.codelinefailure;
+
+import com.github.javaparser.ParserConfiguration;
+import com.github.javaparser.ast.CompilationUnit;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.Optional;
+
+import static com.theoryinpractise.codelinefailure.ParserSupport.parseCompilationUnit;
+
+/**
+ * A single file visited by the scan, shared by every enabled check.
+ *
+ * <p>The file contents are read at most once, and only parsed when a check first asks for the compilation unit, so a
+ * configuration that only uses line patterns never touches JavaParser. When given a {@link ParseCache}, a unit parsed
+ * earlier from the same path and text is reused instead.
+ *
+ * <p>Once given a time budget, parsing is abandoned as soon as the budget runs out, and checks can call
+ * {@link #checkTimeBudget()} between steps to stop early too.
+ */
+public class SourceFile {
+  static final int BINARY_SNIFF_LENGTH = 8192;
+
+  private final File file;
+
+  private final Charset charset;
+
+  private final ParserConfiguration parserConfiguration;
+
+  private final ParseCache parseCache;
+
+  private ByteBuffer bytes;
+
+  private Boolean binary;
+
+  private CharBuffer content;
+
+  private String text;
+
+  private Optional<CompilationUnit> compilationUnit;
+
+  private long readNanos;
+
+  private long parseNanos;
+
+  private long deadlineNanos;
+
+  private boolean hasDeadline;
+
+  public SourceFile(File file) {
+    this(file, StandardCharsets.UTF_8, new ParserConfiguration(), null);
+  }
+
+  public SourceFile(File file, Charset charset, ParserConfiguration parserConfiguration, ParseCache parseCache) {
+    this.file = file;
+    this.charset = charset;
+    this.parserConfiguration = parserConfiguration;
+    this.parseCache = parseCache;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  /**
+   * Returns the decoded file contents. The channel used to read the file is closed before this returns; malformed input
+   * is replaced rather than failing the read.
+   */
+  public CharSequence getContent() throws IOException {
+    if (content == null) {
+      ByteBuffer raw = getBytes();
+      long start = System.nanoTime();
+      content = newDecoder().decode(raw.duplicate());
+      readNanos += System.nanoTime() - start;
+      bytes = null;
+    }
+    return content;
+  }
+
+  /**
+   * Returns true if a NUL byte appears in the first {@value #BINARY_SNIFF_LENGTH} bytes of the file, which no text
+   * encoding used for sources produces. UTF-16 sources are never treated as binary. Unless the file has already been
+   * read, only those first bytes are read, and they are not kept.
+   */
+  public boolean isBinary() throws IOException {
+    if (binary == null) {
+      if (charset.name().startsWith("UTF-16") || charset.name().startsWith("UTF-32")) {
+        binary = false;
+      } else if (content != null) {
+        binary = containsNul(content);
+      } else if (bytes != null) {
+        binary = containsNul(bytes);
+      } else {
+        binary = containsNul(readHead());
+      }
+    }
+    return binary;
+  }
+
+  private static boolean containsNul(CharSequence text) {
+    int end = Math.min(text.length(), BINARY_SNIFF_LENGTH);
+    for (int i = 0; i < end; i++) {
+      if (text.charAt(i) == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean containsNul(ByteBuffer raw) {
+    int end = Math.min(raw.limit(), BINARY_SNIFF_LENGTH);
+    for (int i = 0; i < end; i++) {
+      if (raw.get(i) == 0) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Reads at most the first {@value #BINARY_SNIFF_LENGTH} bytes of the file.
+   */
+  private ByteBuffer readHead() throws IOException {
+    long start = System.nanoTime();
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      ByteBuffer head = ByteBuffer.allocate((int) Math.min(channel.size(), BINARY_SNIFF_LENGTH));
+      while (head.hasRemaining() && channel.read(head) != -1) {
+        // keep reading until the buffer is full or the file ends
+      }
+      head.flip();
+      return head;
+    } finally {
+      readNanos += System.nanoTime() - start;
+    }
+  }
+
+  private ByteBuffer getBytes() throws IOException {
+    if (bytes == null) {
+      long start = System.nanoTime();
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+        bytes = ByteBuffer.allocate(Math.toIntExact(channel.size()));
+        while (bytes.hasRemaining() && channel.read(bytes) != -1) {
+          // keep reading until the buffer is full or the file ends
+        }
+        bytes.flip();
+      }
+      readNanos += System.nanoTime() - start;
+    }
+    return bytes;
+  }
+
+  /**
+   * Returns the file's imports. Unless the contents have already been read, only the header of the file is decoded.
+   */
+  public List<ImportHeader.Import> getImports() throws IOException {
+    if (content != null) {
+      return ImportHeader.read(content);
+    }
+    long start = System.nanoTime();
+    InputStream in = bytes != null
+        ? new ByteArrayInputStream(bytes.array(), 0, bytes.limit())
+        : Files.newInputStream(file.toPath());
+    try (Reader reader = new InputStreamReader(in, newDecoder())) {
+      return ImportHeader.read(reader);
+    } finally {
+      readNanos += System.nanoTime() - start;
+    }
+  }
+
+  public String getText() throws IOException {
+    if (text == null) {
+      text = getContent().toString();
+    }
+    return text;
+  }
+
+  /**
+   * Starts a budget of {@code budgetNanos} for the rest of the work on this file.
+   */
+  public void startTimeBudget(long budgetNanos) {
+    deadlineNanos = System.nanoTime() + budgetNanos;
+    hasDeadline = true;
+  }
+
+  /**
+   * Throws {@link TimeBudgetExceededException} once the time budget, if any, has run out.
+   */
+  public void checkTimeBudget() {
+    if (hasDeadline && System.nanoTime() - deadlineNanos > 0) {
+      throw new TimeBudgetExceededException(file);
+    }
+  }
+
+  /**
+   * Returns the time spent reading and decoding this file so far.
+   */
+  public long getReadNanos() {
+    return readNanos;
+  }
+
+  /**
+   * Returns the time spent parsing this file so far, which is zero when a cached unit was used.
+   */
+  public long getParseNanos() {
+    return parseNanos;
+  }
+
+  private CharsetDecoder newDecoder() {
+    return charset.newDecoder()
+               .onMalformedInput(CodingErrorAction.REPLACE)
+               .onUnmappableCharacter(CodingErrorAction.REPLACE);
+  }
+
+  public Optional<CompilationUnit> getCompilationUnit() throws IOException {
+    if (compilationUnit == null) {
+      if (parseCache != null) {
+        compilationUnit = parseCache.get(file, getContent());
+        if (compilationUnit.isPresent()) {
+          return compilationUnit;
+        }
+      }
+      String source = getText();
+      long start = System.nanoTime();
+      if (hasDeadline) {
+        compilationUnit = parseCompilationUnit(new BudgetedReader(source), parserConfiguration);
+        parseNanos += System.nanoTime() - start;
+        checkTimeBudget();
+      } else {
+        compilationUnit = parseCompilationUnit(source, parserConfiguration);
+        parseNanos += System.nanoTime() - start;
+      }
+      if (parseCache != null && compilationUnit.isPresent()) {
+        parseCache.put(file, getContent(), compilationUnit.get());
+      }
+    }
+    return compilationUnit;
+  }
+
+  /**
+   * Feeds the parser, giving up once the time budget has run out. The parser reads its input a buffer at a time as it
+   * goes, so this stops a runaway parse part way through.
+   */
+  private class BudgetedReader extends StringReader {
+    BudgetedReader(String source) {
+      super(source);
+    }
+
+    @Override
+    public int read(char[] buffer, int offset, int length) throws IOException {
+      checkTimeBudget();
+      return super.read(buffer, offset, length);
+    }
+  }
+}
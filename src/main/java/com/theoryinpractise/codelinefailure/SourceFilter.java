@@ -0,0 +1,111 @@
+package com.theoryinpractise.codelinefailure;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Ant-style include and exclude globs deciding which files below a source root are checked, compiled once per rule
+ * execution.
+ *
+ * <p>Globs are matched against paths relative to the source root, using {@code /} as the separator: {@code *} and
+ * {@code ?} match within a single path element, {@code **} matches any number of elements, including none, and a
+ * trailing {@code /} is short for {@code /**}. A directory whose contents are all excluded, such as {@code generated}
+ * under {@code **}{@code /generated/**}, is pruned from the walk. Editor backups and hidden files are never checked.
+ */
+public class SourceFilter {
+  public static final List<String> DEFAULT_INCLUDES = Collections.singletonList("**/*.java");
+
+  public static final SourceFilter DEFAULT = compile(DEFAULT_INCLUDES, Collections.emptyList());
+
+  private static final Pattern UNACCEPTABLE_NAMES = Pattern.compile("\\..*|#.*|.*\\.orig|.*\\.swp");
+
+  private final List<Pattern> includes;
+
+  private final List<Pattern> excludes;
+
+  private SourceFilter(List<Pattern> includes, List<Pattern> excludes) {
+    this.includes = includes;
+    this.excludes = excludes;
+  }
+
+  /**
+   * Compiles the given globs, including {@link #DEFAULT_INCLUDES} when {@code includes} is empty.
+   */
+  public static SourceFilter compile(List<String> includes, List<String> excludes) {
+    return new SourceFilter(globs(includes.isEmpty() ? DEFAULT_INCLUDES : includes), globs(excludes));
+  }
+
+  /**
+   * Returns true if the file at {@code relativePath} should be checked.
+   */
+  public boolean isIncluded(Path relativePath) {
+    Path name = relativePath.getFileName();
+    if (name == null || UNACCEPTABLE_NAMES.matcher(name.toString()).matches()) {
+      return false;
+    }
+    String path = slashed(relativePath);
+    return matchesAny(includes, path) && !matchesAny(excludes, path);
+  }
+
+  /**
+   * Returns true if the directory at {@code relativePath} is excluded, along with everything below it.
+   */
+  public boolean isPruned(Path relativePath) {
+    return !excludes.isEmpty() && matchesAny(excludes, slashed(relativePath) + "/");
+  }
+
+  private static boolean matchesAny(List<Pattern> patterns, String path) {
+    for (Pattern pattern : patterns) {
+      if (pattern.matcher(path).matches()) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static String slashed(Path path) {
+    return path.toString().replace(path.getFileSystem().getSeparator(), "/");
+  }
+
+  private static List<Pattern> globs(List<String> globs) {
+    List<Pattern> patterns = new ArrayList<>();
+    for (String glob : globs) {
+      patterns.add(Pattern.compile(globRegex(glob.trim())));
+    }
+    return patterns;
+  }
+
+  static String globRegex(String glob) {
+    String normalized = glob.replace('\\', '/');
+    while (normalized.startsWith("/")) {
+      normalized = normalized.substring(1);
+    }
+    if (normalized.endsWith("/")) {
+      normalized += "**";
+    }
+    StringBuilder regex = new StringBuilder();
+    for (int i = 0; i < normalized.length(); i++) {
+      char c = normalized.charAt(i);
+      if (c == '*' && normalized.startsWith("**/", i)) {
+        regex.append("(?:.*/)?");
+        i += 2;
+      } else if (c == '*' && normalized.startsWith("**", i)) {
+        regex.append(".*");
+        i++;
+      } else if (c == '*') {
+        regex.append("[^/]*");
+      } else if (c == '?') {
+        regex.append("[^/]");
+      } else {
+        if ("\\.[]{}()+-^$|".indexOf(c) >= 0) {
+          regex.append('\\');
+        }
+        regex.append(c);
+      }
+    }
+    return regex.toString();
+  }
+}
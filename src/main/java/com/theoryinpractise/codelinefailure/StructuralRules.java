@@ -0,0 +1,266 @@
+package com.theoryinpractise.codelinefailure;
+
+import com.github.javaparser.Position;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.ImportDeclaration;
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.FieldDeclaration;
+import com.github.javaparser.ast.expr.AnnotationExpr;
+import com.github.javaparser.ast.expr.MarkerAnnotationExpr;
+import com.github.javaparser.ast.expr.MethodCallExpr;
+import com.github.javaparser.ast.expr.NormalAnnotationExpr;
+import com.github.javaparser.ast.expr.ObjectCreationExpr;
+import com.github.javaparser.ast.expr.SingleMemberAnnotationExpr;
+import com.github.javaparser.ast.type.ClassOrInterfaceType;
+import com.github.javaparser.ast.type.Type;
+import com.github.javaparser.ast.visitor.VoidVisitorAdapter;
+
+import io.vavr.collection.List;
+import io.vavr.control.Validation;
+
+import org.apache.maven.enforcer.rule.api.EnforcerRuleException;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import static com.theoryinpractise.codelinefailure.CodelineFailureRule.relativePathOfFile;
+import static com.theoryinpractise.codelinefailure.ParserSupport.sourceSnippet;
+
+import static io.vavr.control.Validation.invalid;
+import static io.vavr.control.Validation.valid;
+
+/**
+ * Banned method calls, constructor invocations, annotations and field types, compiled into a single visitor so each
+ * compilation unit is traversed once however many of them are configured.
+ *
+ * <p>Names are matched as written in the source, without the symbol solver. A simple name is qualified through the
+ * file's single-type imports where it can be; otherwise it matches any banned name it is a suffix of, so a ban on
+ * {@code java.util.Date} also catches {@code Date} imported on demand. A ban given as a simple name matches that name
+ * however it is qualified. Method calls are banned as {@code Scope.method}, such as {@code System.out.println}, or as a
+ * bare method name to ban it on any scope.
+ */
+public class StructuralRules {
+  private static final Comparator<Violation> SOURCE_ORDER =
+      Comparator.comparingInt(Violation::getLine).thenComparingInt(Violation::getColumn);
+
+  private final Map<String, java.util.List<String>> methodCalls;
+
+  private final Map<String, java.util.List<String>> constructors;
+
+  private final Map<String, java.util.List<String>> annotations;
+
+  private final Map<String, java.util.List<String>> fieldTypes;
+
+  private final Visitor visitor = new Visitor();
+
+  private StructuralRules(
+      Map<String, java.util.List<String>> methodCalls,
+      Map<String, java.util.List<String>> constructors,
+      Map<String, java.util.List<String>> annotations,
+      Map<String, java.util.List<String>> fieldTypes) {
+    this.methodCalls = methodCalls;
+    this.constructors = constructors;
+    this.annotations = annotations;
+    this.fieldTypes = fieldTypes;
+  }
+
+  public static StructuralRules compile(
+      java.util.List<String> methodCalls,
+      java.util.List<String> constructors,
+      java.util.List<String> annotations,
+      java.util.List<String> fieldTypes) {
+    return new StructuralRules(
+        bySimpleName(methodCalls), bySimpleName(constructors), bySimpleName(annotations), bySimpleName(fieldTypes));
+  }
+
+  public boolean isEmpty() {
+    return methodCalls.isEmpty() && constructors.isEmpty() && annotations.isEmpty() && fieldTypes.isEmpty();
+  }
+
+  public List<Validation<EnforcerRuleException, File>> check(SourceFile source) {
+    File file = source.getFile();
+    try {
+      Optional<CompilationUnit> compilationUnit = source.getCompilationUnit();
+      if (!compilationUnit.isPresent()) {
+        return List.empty();
+      }
+      Scan scan = new Scan(source, compilationUnit.get());
+      compilationUnit.get().accept(visitor, scan);
+      return scan.violations.isEmpty()
+          ? List.of(valid(file))
+          : List.ofAll(scan.violations).sortBy(SOURCE_ORDER, v -> (Violation) v.getError());
+    } catch (Exception e) {
+      return List.of(invalid(new Violation(
+          "structural", file, 0, 0, null, String.format("%s: %s", file.getPath(), e.getMessage()), null)));
+    }
+  }
+
+  /**
+   * Indexes banned names by their last element, so most nodes are dismissed with a single lookup.
+   */
+  private static Map<String, java.util.List<String>> bySimpleName(java.util.List<String> names) {
+    Map<String, java.util.List<String>> index = new HashMap<>();
+    for (String name : names) {
+      String trimmed = name.trim();
+      index.computeIfAbsent(simpleName(trimmed), key -> new ArrayList<>()).add(trimmed);
+    }
+    return index;
+  }
+
+  private static String simpleName(String name) {
+    return name.substring(name.lastIndexOf('.') + 1);
+  }
+
+  private static String scopeOf(String name) {
+    int dot = name.lastIndexOf('.');
+    return dot < 0 ? null : name.substring(0, dot);
+  }
+
+  /**
+   * Returns true if {@code written}, as already qualified through the imports, names {@code banned}.
+   */
+  static boolean namesMatch(String banned, String written) {
+    return banned.equals(written) || banned.endsWith("." + written) || written.endsWith("." + banned);
+  }
+
+  private static String typeName(Type type) {
+    return type instanceof ClassOrInterfaceType ? ((ClassOrInterfaceType) type).getNameWithScope() : type.asString();
+  }
+
+  /**
+   * The state of checking one compilation unit, passed through the shared, stateless visitor.
+   */
+  private static class Scan {
+    final SourceFile source;
+
+    final File file;
+
+    final Map<String, String> imports = new HashMap<>();
+
+    final java.util.List<Validation<EnforcerRuleException, File>> violations = new ArrayList<>();
+
+    int visited;
+
+    Scan(SourceFile source, CompilationUnit compilationUnit) {
+      this.source = source;
+      this.file = source.getFile();
+      for (ImportDeclaration anImport : compilationUnit.getImports()) {
+        if (!anImport.isAsterisk() && !anImport.isStatic()) {
+          imports.put(anImport.getName().getIdentifier(), anImport.getNameAsString());
+        }
+      }
+    }
+
+    /**
+     * Counts a visited node, checking the file's time budget every so often.
+     */
+    void visited() {
+      if ((++visited & 0xff) == 0) {
+        source.checkTimeBudget();
+      }
+    }
+
+    /**
+     * Qualifies the first element of {@code name} through the single-type imports, when there is one for it.
+     */
+    String qualify(String name) {
+      int dot = name.indexOf('.');
+      String first = dot < 0 ? name : name.substring(0, dot);
+      String imported = imports.get(first);
+      return imported == null ? name : imported + name.substring(first.length());
+    }
+
+    void report(String rule, String description, String name, Node node) {
+      Position begin = node.getBegin().orElse(Position.HOME);
+      violations.add(invalid(new Violation(
+          rule,
+          file,
+          begin.line,
+          begin.column,
+          relativePathOfFile(file),
+          String.format("%s - %s at %s:%d:%d", description, name, file.getPath(), begin.line, begin.column),
+          sourceSnippet(node))));
+    }
+  }
+
+  private class Visitor extends VoidVisitorAdapter<Scan> {
+    @Override
+    public void visit(MethodCallExpr n, Scan scan) {
+      scan.visited();
+      java.util.List<String> banned = methodCalls.get(n.getNameAsString());
+      if (banned != null) {
+        String scope = n.getScope().map(s -> scan.qualify(s.toString())).orElse(null);
+        for (String ban : banned) {
+          String bannedScope = scopeOf(ban);
+          if (bannedScope == null || scope != null && namesMatch(bannedScope, scope)) {
+            scan.report("bannedMethodCalls", "Banned method call", ban, n);
+            break;
+          }
+        }
+      }
+      super.visit(n, scan);
+    }
+
+    @Override
+    public void visit(ObjectCreationExpr n, Scan scan) {
+      scan.visited();
+      check(constructors, n.getType(), "bannedConstructors", "Banned constructor", n, scan);
+      super.visit(n, scan);
+    }
+
+    @Override
+    public void visit(MarkerAnnotationExpr n, Scan scan) {
+      scan.visited();
+      checkAnnotation(n, scan);
+      super.visit(n, scan);
+    }
+
+    @Override
+    public void visit(SingleMemberAnnotationExpr n, Scan scan) {
+      scan.visited();
+      checkAnnotation(n, scan);
+      super.visit(n, scan);
+    }
+
+    @Override
+    public void visit(NormalAnnotationExpr n, Scan scan) {
+      scan.visited();
+      checkAnnotation(n, scan);
+      super.visit(n, scan);
+    }
+
+    @Override
+    public void visit(FieldDeclaration n, Scan scan) {
+      scan.visited();
+      check(fieldTypes, n.getElementType(), "bannedFieldTypes", "Banned field type", n, scan);
+      super.visit(n, scan);
+    }
+
+    private void checkAnnotation(AnnotationExpr n, Scan scan) {
+      check(annotations, n.getNameAsString(), "bannedAnnotations", "Banned annotation", n, scan);
+    }
+
+    private void check(Map<String, java.util.List<String>> bans, Type type, String rule, String description, Node n, Scan scan) {
+      if (!bans.isEmpty()) {
+        check(bans, typeName(type), rule, description, n, scan);
+      }
+    }
+
+    private void check(Map<String, java.util.List<String>> bans, String name, String rule, String description, Node n, Scan scan) {
+      java.util.List<String> banned = bans.get(simpleName(name));
+      if (banned != null) {
+        String qualified = scan.qualify(name);
+        for (String ban : banned) {
+          if (namesMatch(ban, qualified)) {
+            scan.report(rule, description, ban, n);
+            return;
+          }
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,95 @@
+package com.theoryinpractise.codelinefailure;
+
+import org.apache.maven.plugin.logging.Log;
+
+/**
+ * A {@link Log} that serialises access to the underlying Maven log, so checks running on several threads don't interleave
+ * their output.
+ */
+public class SynchronizedLog implements Log {
+  private final Log delegate;
+
+  public SynchronizedLog(Log delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public synchronized boolean isDebugEnabled() {
+    return delegate.isDebugEnabled();
+  }
+
+  @Override
+  public synchronized void debug(CharSequence content) {
+    delegate.debug(content);
+  }
+
+  @Override
+  public synchronized void debug(CharSequence content, Throwable error) {
+    delegate.debug(content, error);
+  }
+
+  @Override
+  public synchronized void debug(Throwable error) {
+    delegate.debug(error);
+  }
+
+  @Override
+  public synchronized boolean isInfoEnabled() {
+    return delegate.isInfoEnabled();
+  }
+
+  @Override
+  public synchronized void info(CharSequence content) {
+    delegate.info(content);
+  }
+
+  @Override
+  public synchronized void info(CharSequence content, Throwable error) {
+    delegate.info(content, error);
+  }
+
+  @Override
+  public synchronized void info(Throwable error) {
+    delegate.info(error);
+  }
+
+  @Override
+  public synchronized boolean isWarnEnabled() {
+    return delegate.isWarnEnabled();
+  }
+
+  @Override
+  public synchronized void warn(CharSequence content) {
+    delegate.warn(content);
+  }
+
+  @Override
+  public synchronized void warn(CharSequence content, Throwable error) {
+    delegate.warn(content, error);
+  }
+
+  @Override
+  public synchronized void warn(Throwable error) {
+    delegate.warn(error);
+  }
+
+  @Override
+  public synchronized boolean isErrorEnabled() {
+    return delegate.isErrorEnabled();
+  }
+
+  @Override
+  public synchronized void error(CharSequence content) {
+    delegate.error(content);
+  }
+
+  @Override
+  public synchronized void error(CharSequence content, Throwable error) {
+    delegate.error(content, error);
+  }
+
+  @Override
+  public synchronized void error(Throwable error) {
+    delegate.error(error);
+  }
+}
@@ -0,0 +1,19 @@
+package com.theoryinpractise.codelinefailure;
+
+import java.io.File;
+
+/**
+ * Thrown when work on a single file runs past the configured time budget, so the file can be abandoned.
+ */
+public class TimeBudgetExceededException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+
+  public TimeBudgetExceededException(File file) {
+    super("Time budget exceeded checking " + file.getPath());
+  }
+
+  @Override
+  public synchronized Throwable fillInStackTrace() {
+    return this;
+  }
+}
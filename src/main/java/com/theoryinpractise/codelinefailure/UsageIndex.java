@@ -0,0 +1,237 @@
+package com.theoryinpractise.codelinefailure;
+
+import com.github.javaparser.ast.Node;
+import com.github.javaparser.ast.body.ConstructorDeclaration;
+import com.github.javaparser.ast.body.MethodDeclaration;
+import com.github.javaparser.ast.body.Parameter;
+import com.github.javaparser.ast.body.VariableDeclarator;
+import com.github.javaparser.ast.expr.AssignExpr;
+import com.github.javaparser.ast.expr.Expression;
+import com.github.javaparser.ast.expr.FieldAccessExpr;
+import com.github.javaparser.ast.expr.LambdaExpr;
+import com.github.javaparser.ast.expr.MethodCallExpr;
+import com.github.javaparser.ast.expr.MethodReferenceExpr;
+import com.github.javaparser.ast.expr.NameExpr;
+import com.github.javaparser.ast.expr.VariableDeclarationExpr;
+import com.github.javaparser.ast.stmt.BlockStmt;
+import com.github.javaparser.ast.stmt.CatchClause;
+import com.github.javaparser.ast.stmt.ForEachStmt;
+import com.github.javaparser.ast.stmt.ForStmt;
+import com.github.javaparser.ast.stmt.TryStmt;
+import com.github.javaparser.ast.visitor.VoidVisitorAdapter;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The member names referenced within a class, gathered in a single pass over its AST so that each "is this member used"
+ * question is a set lookup.
+ *
+ * <p>Field reads are kept apart from plain assignments, so a field that is only ever written still counts as unused.
+ * Simple names that refer to a parameter or local variable declared in an enclosing scope are not counted as field
+ * reads, and a method calling itself does not count as a use of that method. A call is only taken as recursive when no
+ * other method of the same name in the class could take its arguments, so calls between overloads still count.
+ */
+public class UsageIndex {
+  private final Set<String> fieldReads = new HashSet<>();
+
+  private final Set<String> fieldWrites = new HashSet<>();
+
+  private final Set<String> methodReferences = new HashSet<>();
+
+  private UsageIndex() {}
+
+  public static UsageIndex of(Node root) {
+    UsageIndex index = new UsageIndex();
+    root.accept(index.new Collector(), null);
+    return index;
+  }
+
+  public boolean isFieldRead(String name) {
+    return fieldReads.contains(name);
+  }
+
+  public boolean isFieldWritten(String name) {
+    return fieldWrites.contains(name);
+  }
+
+  public boolean isMethodReferenced(String name) {
+    return methodReferences.contains(name);
+  }
+
+  /**
+   * Returns true if {@code call}, made from within {@code enclosing}, can only be a call of {@code enclosing} itself.
+   */
+  static boolean isRecursiveCall(MethodCallExpr call, MethodDeclaration enclosing) {
+    if (enclosing == null
+        || !enclosing.getNameAsString().equals(call.getNameAsString())
+        || enclosing.getParameters().size() != call.getArguments().size()
+        || !call.getScope().map(Expression::isThisExpr).orElse(true)) {
+      return false;
+    }
+    for (Node sibling : enclosing.getParentNode().map(Node::getChildNodes).orElse(Collections.emptyList())) {
+      if (sibling != enclosing && sibling instanceof MethodDeclaration) {
+        MethodDeclaration overload = (MethodDeclaration) sibling;
+        if (overload.getNameAsString().equals(call.getNameAsString())
+            && (overload.getParameters().size() == call.getArguments().size()
+                || overload.getParameters().stream().anyMatch(Parameter::isVarArgs))) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+
+  private class Collector extends VoidVisitorAdapter<Void> {
+    private final Deque<Set<String>> scopes = new ArrayDeque<>();
+
+    private final Deque<MethodDeclaration> methods = new ArrayDeque<>();
+
+    private boolean isLocal(String name) {
+      for (Set<String> scope : scopes) {
+        if (scope.contains(name)) {
+          return true;
+        }
+      }
+      return false;
+    }
+
+    private Set<String> pushScope() {
+      Set<String> scope = new HashSet<>();
+      scopes.push(scope);
+      return scope;
+    }
+
+    private void declareParameters(Iterable<Parameter> parameters) {
+      Set<String> scope = pushScope();
+      for (Parameter parameter : parameters) {
+        scope.add(parameter.getNameAsString());
+      }
+    }
+
+    @Override
+    public void visit(MethodDeclaration n, Void arg) {
+      declareParameters(n.getParameters());
+      methods.push(n);
+      super.visit(n, arg);
+      methods.pop();
+      scopes.pop();
+    }
+
+    @Override
+    public void visit(ConstructorDeclaration n, Void arg) {
+      declareParameters(n.getParameters());
+      super.visit(n, arg);
+      scopes.pop();
+    }
+
+    @Override
+    public void visit(LambdaExpr n, Void arg) {
+      declareParameters(n.getParameters());
+      super.visit(n, arg);
+      scopes.pop();
+    }
+
+    @Override
+    public void visit(CatchClause n, Void arg) {
+      pushScope().add(n.getParameter().getNameAsString());
+      super.visit(n, arg);
+      scopes.pop();
+    }
+
+    @Override
+    public void visit(BlockStmt n, Void arg) {
+      pushScope();
+      super.visit(n, arg);
+      scopes.pop();
+    }
+
+    @Override
+    public void visit(ForStmt n, Void arg) {
+      pushScope();
+      super.visit(n, arg);
+      scopes.pop();
+    }
+
+    @Override
+    public void visit(ForEachStmt n, Void arg) {
+      pushScope();
+      super.visit(n, arg);
+      scopes.pop();
+    }
+
+    @Override
+    public void visit(TryStmt n, Void arg) {
+      pushScope();
+      super.visit(n, arg);
+      scopes.pop();
+    }
+
+    @Override
+    public void visit(VariableDeclarationExpr n, Void arg) {
+      super.visit(n, arg);
+      if (!scopes.isEmpty()) {
+        for (VariableDeclarator variable : n.getVariables()) {
+          scopes.peek().add(variable.getNameAsString());
+        }
+      }
+    }
+
+    @Override
+    public void visit(NameExpr n, Void arg) {
+      if (!isLocal(n.getNameAsString())) {
+        fieldReads.add(n.getNameAsString());
+      }
+    }
+
+    @Override
+    public void visit(FieldAccessExpr n, Void arg) {
+      super.visit(n, arg);
+      fieldReads.add(n.getNameAsString());
+    }
+
+    @Override
+    public void visit(AssignExpr n, Void arg) {
+      Expression target = n.getTarget();
+      if (n.getOperator() != AssignExpr.Operator.ASSIGN) {
+        super.visit(n, arg);
+        recordWrite(target);
+        return;
+      }
+      if (target.isNameExpr()) {
+        recordWrite(target);
+      } else if (target.isFieldAccessExpr()) {
+        target.asFieldAccessExpr().getScope().accept(this, arg);
+        recordWrite(target);
+      } else {
+        target.accept(this, arg);
+      }
+      n.getValue().accept(this, arg);
+    }
+
+    private void recordWrite(Expression target) {
+      if (target.isNameExpr() && !isLocal(target.asNameExpr().getNameAsString())) {
+        fieldWrites.add(target.asNameExpr().getNameAsString());
+      } else if (target.isFieldAccessExpr()) {
+        fieldWrites.add(target.asFieldAccessExpr().getNameAsString());
+      }
+    }
+
+    @Override
+    public void visit(MethodCallExpr n, Void arg) {
+      super.visit(n, arg);
+      if (!isRecursiveCall(n, methods.peek())) {
+        methodReferences.add(n.getNameAsString());
+      }
+    }
+
+    @Override
+    public void visit(MethodReferenceExpr n, Void arg) {
+      super.visit(n, arg);
+      methodReferences.add(n.getIdentifier());
+    }
+  }
+}
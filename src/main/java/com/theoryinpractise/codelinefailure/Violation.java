@@ -0,0 +1,79 @@
+package com.theoryinpractise.codelinefailure;
+
+import org.apache.maven.enforcer.rule.api.EnforcerRuleException;
+
+import java.io.File;
+
+/**
+ * A single violation found by a check, with the check that found it and where.
+ *
+ * <p>Violations extend {@link EnforcerRuleException} so checks can keep returning them as validation errors, but they
+ * are plain records: no stack trace is captured, and source snippets are cut to {@link #MAX_SNIPPET_LENGTH} characters.
+ */
+public class Violation extends EnforcerRuleException {
+  private static final long serialVersionUID = 1L;
+
+  public static final int MAX_SNIPPET_LENGTH = 200;
+
+  private final String rule;
+
+  private final String path;
+
+  private final int line;
+
+  private final int column;
+
+  /**
+   * Creates a violation of {@code rule}. A {@code line} or {@code column} of 0 means it isn't known, as does a null
+   * {@code file}. The {@code source} is what the console report groups violations by.
+   */
+  public Violation(String rule, File file, int line, int column, Object source, String message, String snippet) {
+    this(rule, file == null ? null : file.getPath(), line, column, source, message, snippet);
+  }
+
+  Violation(String rule, String path, int line, int column, Object source, String message, String snippet) {
+    super(source, message, truncate(snippet));
+    this.rule = rule;
+    this.path = path;
+    this.line = line;
+    this.column = column;
+  }
+
+  public String getRule() {
+    return rule;
+  }
+
+  public String getPath() {
+    return path;
+  }
+
+  public int getLine() {
+    return line;
+  }
+
+  public int getColumn() {
+    return column;
+  }
+
+  public String getSnippet() {
+    return getLongMessage();
+  }
+
+  @Override
+  public synchronized Throwable fillInStackTrace() {
+    return this;
+  }
+
+  /**
+   * Cuts {@code snippet} down to its first {@link #MAX_SNIPPET_LENGTH} characters, marking where it was cut.
+   */
+  public static String truncate(CharSequence snippet) {
+    if (snippet == null) {
+      return null;
+    }
+    if (snippet.length() <= MAX_SNIPPET_LENGTH) {
+      return snippet.toString();
+    }
+    return snippet.subSequence(0, MAX_SNIPPET_LENGTH) + "...";
+  }
+}
@@ -0,0 +1,246 @@
+package com.theoryinpractise.codelinefailure;
+
+import io.vavr.Function1;
+import io.vavr.collection.List;
+import io.vavr.control.Validation;
+
+import org.apache.maven.enforcer.rule.api.EnforcerRuleException;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Streams violations to SARIF and JSON Lines reports as each file's results come in, keeping only the first
+ * {@code consoleLimit} of them, ordered by path and position, in memory for the console summary.
+ *
+ * <p>Reports are written in the order files finish, which varies between runs when scanning in parallel. A report
+ * that can't be written is logged and skipped, rather than failing the build.
+ */
+public class ViolationReporter implements Closeable {
+  private static final String INFORMATION_URI = "https://github.com/talios/codeline-enforcer-rule";
+
+  private static final Comparator<Violation> CONSOLE_ORDER =
+      Comparator.comparing((Violation v) -> v.getPath() == null ? "" : v.getPath())
+                .thenComparingInt(Violation::getLine)
+                .thenComparingInt(Violation::getColumn)
+                .thenComparing(Violation::getRule)
+                .thenComparing(v -> v.getMessage() == null ? "" : v.getMessage());
+
+  private final Log log;
+
+  private final Path basedir;
+
+  private final int consoleLimit;
+
+  private final AtomicInteger total = new AtomicInteger();
+
+  private final PriorityQueue<Violation> shown = new PriorityQueue<>(CONSOLE_ORDER.reversed());
+
+  private Writer sarif;
+
+  private Writer jsonLines;
+
+  private boolean firstSarifResult = true;
+
+  private ViolationReporter(Log log, Path basedir, int consoleLimit) {
+    this.log = log;
+    this.basedir = basedir;
+    this.consoleLimit = consoleLimit;
+  }
+
+  /**
+   * Opens a reporter writing to whichever of {@code sarifFile} and {@code jsonLinesFile} are not null. Paths in the
+   * reports are relative to {@code basedir} where possible.
+   */
+  public static ViolationReporter open(
+      Log log, File basedir, File sarifFile, File jsonLinesFile, int consoleLimit, String toolVersion) {
+    ViolationReporter reporter = new ViolationReporter(log, basedir.getAbsoluteFile().toPath(), consoleLimit);
+    return reporter.start(
+        sarifFile != null ? reporter.openReport(sarifFile) : null,
+        jsonLinesFile != null ? reporter.openReport(jsonLinesFile) : null,
+        toolVersion);
+  }
+
+  /**
+   * Opens a reporter writing to whichever of {@code sarif} and {@code jsonLines} are not null, closing them when it is
+   * closed.
+   */
+  public static ViolationReporter writingTo(
+      Log log, File basedir, Writer sarif, Writer jsonLines, int consoleLimit, String toolVersion) {
+    return new ViolationReporter(log, basedir.getAbsoluteFile().toPath(), consoleLimit).start(sarif, jsonLines, toolVersion);
+  }
+
+  private ViolationReporter start(Writer sarifWriter, Writer jsonLinesWriter, String toolVersion) {
+    sarif = sarifWriter;
+    jsonLines = jsonLinesWriter;
+    if (sarif != null) {
+      write(sarif, String.format(
+          "{\n  \"version\": \"2.1.0\",\n"
+          + "  \"$schema\": \"https://json.schemastore.org/sarif-2.1.0.json\",\n"
+          + "  \"runs\": [{\n"
+          + "    \"tool\": {\"driver\": {\"name\": \"codeline-enforcer-rule\", \"version\": %s, \"informationUri\": %s}},\n"
+          + "    \"results\": [",
+          Json.quote(toolVersion),
+          Json.quote(INFORMATION_URI)));
+    }
+    return this;
+  }
+
+  /**
+   * Wraps {@code process} so each file's violations are reported as soon as it has been checked, rather than passed on.
+   */
+  public Function1<File, List<Validation<EnforcerRuleException, File>>> reporting(
+      Function1<File, List<Validation<EnforcerRuleException, File>>> process) {
+    return file -> {
+      retain(process.apply(file));
+      return List.empty();
+    };
+  }
+
+  /**
+   * Reports the violations among {@code results}, keeping those that fall within the console limit.
+   */
+  public void retain(List<Validation<EnforcerRuleException, File>> results) {
+    for (Validation<EnforcerRuleException, File> result : results) {
+      if (result.isInvalid()) {
+        Violation violation = report(result.getError());
+        total.incrementAndGet();
+        keep(violation);
+      }
+    }
+  }
+
+  private synchronized void keep(Violation violation) {
+    if (shown.size() < consoleLimit) {
+      shown.add(violation);
+    } else if (consoleLimit > 0 && CONSOLE_ORDER.compare(violation, shown.peek()) < 0) {
+      shown.poll();
+      shown.add(violation);
+    }
+  }
+
+  /**
+   * Returns the violations the console should show: the first {@code consoleLimit} reported, ordered by path and
+   * position, so the same ones are shown however the files were scheduled.
+   */
+  public synchronized List<Validation<EnforcerRuleException, File>> shown() {
+    java.util.List<Violation> violations = new ArrayList<>(shown);
+    violations.sort(CONSOLE_ORDER);
+    return List.ofAll(violations).map(Validation::invalid);
+  }
+
+  /**
+   * Returns how many violations have been reported, including those beyond the console limit.
+   */
+  public int total() {
+    return total.get();
+  }
+
+  @Override
+  public synchronized void close() {
+    if (sarif != null) {
+      write(sarif, "\n    ]\n  }]\n}\n");
+      sarif = closeReport(sarif);
+    }
+    jsonLines = closeReport(jsonLines);
+  }
+
+  private synchronized Violation report(EnforcerRuleException error) {
+    Violation violation = error instanceof Violation
+        ? (Violation) error
+        : new Violation("error", (String) null, 0, 0, error.getSource(), error.getMessage(), error.getLongMessage());
+    String uri = violation.getPath() != null ? relativeUri(violation.getPath()) : null;
+
+    if (sarif != null) {
+      StringBuilder result = new StringBuilder(firstSarifResult ? "\n" : ",\n");
+      result.append("      {\"ruleId\": ").append(Json.quote(violation.getRule()));
+      result.append(", \"level\": \"error\", \"message\": {\"text\": ").append(Json.quote(violation.getMessage())).append('}');
+      if (uri != null) {
+        result.append(", \"locations\": [{\"physicalLocation\": {\"artifactLocation\": {\"uri\": ");
+        result.append(Json.quote(uri)).append('}');
+        if (violation.getLine() > 0) {
+          result.append(", \"region\": {\"startLine\": ").append(violation.getLine());
+          if (violation.getColumn() > 0) {
+            result.append(", \"startColumn\": ").append(violation.getColumn());
+          }
+          if (violation.getSnippet() != null && !violation.getSnippet().isEmpty()) {
+            result.append(", \"snippet\": {\"text\": ").append(Json.quote(violation.getSnippet())).append('}');
+          }
+          result.append('}');
+        }
+        result.append("}}]");
+      }
+      result.append('}');
+      firstSarifResult = false;
+      if (!write(sarif, result.toString())) {
+        sarif = closeReport(sarif);
+      }
+    }
+
+    if (jsonLines != null) {
+      boolean written = write(jsonLines, String.format(
+          "{\"rule\": %s, \"path\": %s, \"line\": %d, \"column\": %d, \"message\": %s, \"snippet\": %s}\n",
+          Json.quote(violation.getRule()),
+          Json.quote(uri),
+          violation.getLine(),
+          violation.getColumn(),
+          Json.quote(violation.getMessage()),
+          Json.quote(violation.getSnippet())));
+      if (!written) {
+        jsonLines = closeReport(jsonLines);
+      }
+    }
+    return violation;
+  }
+
+  private String relativeUri(String path) {
+    Path file = new File(path).getAbsoluteFile().toPath();
+    return file.startsWith(basedir)
+        ? basedir.relativize(file).toString().replace(File.separatorChar, '/')
+        : file.toUri().toString();
+  }
+
+  private Writer openReport(File file) {
+    try {
+      Files.createDirectories(file.getAbsoluteFile().getParentFile().toPath());
+      return Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8);
+    } catch (IOException e) {
+      log.warn("Unable to write code enforcer report " + file + ": " + e.getMessage());
+      return null;
+    }
+  }
+
+  private boolean write(Writer writer, String text) {
+    if (writer == null) {
+      return false;
+    }
+    try {
+      writer.write(text);
+      return true;
+    } catch (IOException e) {
+      log.warn("Unable to write code enforcer report: " + e.getMessage());
+      return false;
+    }
+  }
+
+  private Writer closeReport(Writer writer) {
+    if (writer != null) {
+      try {
+        writer.close();
+      } catch (IOException e) {
+        log.warn("Unable to write code enforcer report: " + e.getMessage());
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,183 @@
+package com.theoryinpractise.codelinefailure;
+
+import io.vavr.collection.List;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.theoryinpractise.codelinefailure.CheckUnusedPrivateFields.checkUnusedPrivates;
+import static org.testng.Assert.assertEquals;
+
+public class CheckUnusedPrivateFieldsTest extends TempDirectoryTest {
+  private static final Pattern UNUSED_MEMBER = Pattern.compile("Unused members found:  (\\w+)");
+
+  @Test
+  public void testPrivateMembers() throws IOException {
+    List<String> unused = unusedMembers(
+        "Sample",
+        "public class Sample {\n"
+            + "  private static final long serialVersionUID = 1L;\n"
+            + "  private String unusedField = \"\";\n"
+            + "  private String usedField = \"\";\n"
+            + "  private String initialisedFrom = usedField;\n"
+            + "  private int writtenOnly;\n"
+            + "  private int mentionedInString;\n"
+            + "  private int shadowed;\n"
+            + "  private int otherInstance;\n"
+            + "  private int compound;\n"
+            + "\n"
+            + "  public String describe(int shadowed) {\n"
+            + "    writtenOnly = 1;\n"
+            + "    this.writtenOnly = 2;\n"
+            + "    compound += shadowed;\n"
+            + "    System.out.println(\"mentionedInString(\" + shadowed + \")\");\n"
+            + "    return initialisedFrom + new Sample().otherInstance;\n"
+            + "  }\n"
+            + "\n"
+            + "  public void run() {\n"
+            + "    calledHelper();\n"
+            + "    Runnable r = this::referencedHelper;\n"
+            + "    r.run();\n"
+            + "  }\n"
+            + "\n"
+            + "  private void unusedMethod() {}\n"
+            + "\n"
+            + "  private void recursive(int n) {\n"
+            + "    if (n > 0) {\n"
+            + "      recursive(n - 1);\n"
+            + "    }\n"
+            + "  }\n"
+            + "\n"
+            + "  private void calledHelper() {}\n"
+            + "\n"
+            + "  private void referencedHelper() {}\n"
+            + "}\n");
+
+    assertEquals(unused, List.of("unusedField", "writtenOnly", "mentionedInString", "shadowed", "unusedMethod", "recursive"));
+  }
+
+  @Test
+  public void testCallsBetweenOverloadsAreNotRecursion() throws IOException {
+    List<String> unused = unusedMembers(
+        "Overloads",
+        "public class Overloads {\n"
+            + "  public void run() {\n"
+            + "    parse(1);\n"
+            + "  }\n"
+            + "\n"
+            + "  // only one of these is used, but members are matched by name alone\n"
+            + "  private String format(int value) {\n"
+            + "    return format(String.valueOf(value));\n"
+            + "  }\n"
+            + "\n"
+            + "  private String format(String value) {\n"
+            + "    return value;\n"
+            + "  }\n"
+            + "\n"
+            + "  private int parse(int value) {\n"
+            + "    return parse(value, \"a\", \"b\");\n"
+            + "  }\n"
+            + "\n"
+            + "  private int parse(int value, String... rest) {\n"
+            + "    return value;\n"
+            + "  }\n"
+            + "\n"
+            + "  private int countDown(int n) {\n"
+            + "    return n == 0 ? 0 : countDown(n - 1);\n"
+            + "  }\n"
+            + "}\n");
+
+    assertEquals(unused, List.of("countDown"));
+  }
+
+  @Test
+  public void testLocalsShadowFields() throws IOException {
+    List<String> unused = unusedMembers(
+        "Shadows",
+        "public class Shadows {\n"
+            + "  private int local;\n"
+            + "  private int lambda;\n"
+            + "  private int caught;\n"
+            + "  private int outerScope;\n"
+            + "\n"
+            + "  public int compute(java.util.List<Integer> values) {\n"
+            + "    int local = 1;\n"
+            + "    values.forEach(lambda -> System.out.println(lambda));\n"
+            + "    try {\n"
+            + "      return local;\n"
+            + "    } catch (RuntimeException caught) {\n"
+            + "      throw caught;\n"
+            + "    } finally {\n"
+            + "      for (int i = 0; i < outerScope; i++) {\n"
+            + "        int inner = i;\n"
+            + "      }\n"
+            + "    }\n"
+            + "  }\n"
+            + "}\n");
+
+    assertEquals(unused, List.of("local", "lambda", "caught"));
+  }
+
+  @Test
+  public void testNonOverriddenPublicMethods() throws IOException {
+    List<String> unused = unusedMembers(
+        "Service",
+        "public class Service implements Runnable {\n"
+            + "  @Override\n"
+            + "  public void run() {\n"
+            + "    helper();\n"
+            + "  }\n"
+            + "\n"
+            + "  public void helper() {}\n"
+            + "\n"
+            + "  public void unusedPublic() {}\n"
+            + "\n"
+            + "  public String getName() {\n"
+            + "    return \"\";\n"
+            + "  }\n"
+            + "\n"
+            + "  @SuppressWarnings(\"unusedMember\")\n"
+            + "  public void suppressed() {}\n"
+            + "\n"
+            + "  public static void staticMethod() {}\n"
+            + "}\n");
+
+    assertEquals(unused, List.of("unusedPublic"));
+  }
+
+  @Test
+  public void testTestSetupMethodsAreIgnored() throws IOException {
+    List<String> unused = unusedMembers(
+        "SetupTest",
+        "import org.testng.annotations.BeforeMethod;\n"
+            + "\n"
+            + "public class SetupTest {\n"
+            + "  @BeforeMethod\n"
+            + "  private void imported() {}\n"
+            + "\n"
+            + "  @org.junit.Before\n"
+            + "  private void qualified() {}\n"
+            + "\n"
+            + "  @Deprecated\n"
+            + "  private void unused() {}\n"
+            + "}\n");
+
+    assertEquals(unused, List.of("unused"));
+  }
+
+  private List<String> unusedMembers(String className, String source) throws IOException {
+    File file = write(className + ".java", source).toFile();
+
+    return checkUnusedPrivates(new SourceFile(file)).filter(v -> v.isInvalid()).map(v -> {
+      Matcher matcher = UNUSED_MEMBER.matcher(v.getError().getMessage());
+      if (!matcher.find()) {
+        throw new AssertionError("Unexpected violation: " + v.getError().getMessage());
+      }
+      return matcher.group(1);
+    });
+  }
+}
@@ -0,0 +1,117 @@
+package com.theoryinpractise.codelinefailure;
+
+import io.vavr.collection.List;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+public class CodelineDaemonTest extends TempDirectoryTest {
+  @Test
+  public void testSettingsAreAppliedLikePomConfiguration() throws ReflectiveOperationException {
+    CodelineFailureRule rule = new CodelineFailureRule();
+    CodelineDaemon.configure(rule, "patterns", "foo");
+    CodelineDaemon.configure(rule, "patterns", "bar");
+    CodelineDaemon.configure(rule, "checkPrivates", "true");
+    CodelineDaemon.configure(rule, "maxFileSize", "100");
+    CodelineDaemon.configure(rule, "threads", "3");
+    CodelineDaemon.configure(rule, "encoding", "ISO-8859-1");
+
+    assertEquals(setting(rule, "patterns"), Arrays.asList("foo", "bar"));
+    assertEquals(setting(rule, "checkPrivates"), Boolean.TRUE);
+    assertEquals(setting(rule, "maxFileSize"), 100L);
+    assertEquals(setting(rule, "threads"), 3);
+    assertEquals(setting(rule, "encoding"), "ISO-8859-1");
+
+    expectThrows(IllegalArgumentException.class, () -> CodelineDaemon.configure(rule, "noSuchSetting", "true"));
+    expectThrows(IllegalArgumentException.class, () -> CodelineDaemon.configure(rule, "log", "none"));
+  }
+
+  @Test
+  public void testViolationsArePublishedAsJsonLines() throws Exception {
+    Path root = Files.createDirectories(dir.resolve("src/main/java/p"));
+    Files.write(root.resolve("Dirty.java"), "package p;\n\n// foo\nclass Dirty {\n}\n".getBytes(StandardCharsets.UTF_8));
+    Files.write(root.resolve("Clean.java"), "package p;\n\nclass Clean {\n}\n".getBytes(StandardCharsets.UTF_8));
+
+    CodelineFailureRule rule = new CodelineFailureRule();
+    CodelineDaemon.configure(rule, "patterns", "foo");
+    CodelineDaemon.configure(rule, "cacheResults", "false");
+    File output = dir.resolve("target/daemon.jsonl").toFile();
+
+    try (CodelineDaemon daemon = new CodelineDaemon(
+        QUIET_LOG, dir.toFile(), rule, List.of(dir.resolve("src/main/java").toFile()), output, null)) {
+      daemon.checkAll();
+    }
+
+    java.util.List<String> lines = Files.readAllLines(output.toPath(), StandardCharsets.UTF_8);
+    assertEquals(lines.size(), 1);
+    assertTrue(lines.get(0).contains("Dirty.java"), lines.get(0));
+  }
+
+  @Test
+  public void testSavingAFileRechecksOnlyThatFile() throws Exception {
+    write("src/main/java/p/Dirty.java", "package p;\n\n// foo\nclass Dirty {\n}\n");
+    write("src/main/java/p/Clean.java", "package p;\n\nclass Clean {\n}\n");
+
+    CodelineFailureRule rule = new CodelineFailureRule();
+    CodelineDaemon.configure(rule, "patterns", "foo");
+    CodelineDaemon.configure(rule, "cacheResults", "false");
+    CodelineDaemon.configure(rule, "threads", "2");
+    File output = dir.resolve("target/daemon.jsonl").toFile();
+    RecordingLog log = new RecordingLog();
+
+    CodelineDaemon daemon =
+        new CodelineDaemon(log, dir.toFile(), rule, List.of(dir.resolve("src/main/java").toFile()), output, null);
+    Thread runner = new Thread(() -> {
+      try {
+        daemon.run();
+      } catch (Exception e) {
+        log.error(e);
+      }
+    });
+    try {
+      runner.start();
+      await(() -> log.logged("info", "Checked 2 files"));
+      assertEquals(Files.readAllLines(output.toPath(), StandardCharsets.UTF_8).size(), 1);
+
+      write("src/main/java/p/Clean.java", "package p;\n\n// foo\nclass Clean {\n}\n");
+      await(() -> log.logged("info", "Re-checked"));
+
+      assertTrue(log.logged("info", "Re-checked 1 changed files"), log.messages("info").toString());
+      java.util.List<String> lines = Files.readAllLines(output.toPath(), StandardCharsets.UTF_8);
+      assertEquals(lines.size(), 2);
+      assertTrue(lines.get(0).contains("Clean.java"), lines.get(0));
+    } finally {
+      daemon.close();
+      runner.join(TimeUnit.SECONDS.toMillis(10));
+    }
+    assertFalse(runner.isAlive(), "closing stops the daemon");
+    assertTrue(log.messages("error").isEmpty(), log.messages("error").toString());
+  }
+
+  private static Object setting(CodelineFailureRule rule, String name) throws ReflectiveOperationException {
+    Field field = CodelineFailureRule.class.getDeclaredField(name);
+    field.setAccessible(true);
+    return field.get(rule);
+  }
+
+  private static void await(BooleanSupplier condition) throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(30);
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.nanoTime() < deadline, "timed out waiting for the daemon");
+      Thread.sleep(10);
+    }
+  }
+}
@@ -5,17 +5,286 @@ import com.github.javaparser.ast.body.ClassOrInterfaceDeclaration;
 import com.github.javaparser.ast.body.FieldDeclaration;
 import com.github.javaparser.ast.nodeTypes.modifiers.NodeWithPrivateModifier;
 
+import io.vavr.Function1;
 import io.vavr.collection.HashSet;
+import io.vavr.collection.List;
 import io.vavr.collection.Set;
+import io.vavr.control.Validation;
 
+import org.apache.maven.enforcer.rule.api.EnforcerRuleException;
+import org.apache.maven.enforcer.rule.api.EnforcerRuleHelper;
+import org.apache.maven.execution.DefaultMavenExecutionRequest;
+import org.apache.maven.execution.DefaultMavenExecutionResult;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Build;
+import org.apache.maven.project.MavenProject;
+import org.eclipse.aether.RepositorySystemSession;
 import org.testng.annotations.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Proxy;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 import java.util.regex.Pattern;
 
+import static com.theoryinpractise.codelinefailure.CodelineFailureRule.checkFiles;
 import static com.theoryinpractise.codelinefailure.CodelineFailureRule.fieldName;
+import static com.theoryinpractise.codelinefailure.CodelineFailureRule.walkFiles;
 import static com.theoryinpractise.codelinefailure.ParserSupport.parseCompilationUnit;
+import static io.vavr.control.Validation.invalid;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+
+public class CodelineFailureRuleTest extends TempDirectoryTest {
+  @Test
+  public void testCheckFilesIsLinearOnDeepTrees() throws IOException {
+    assertDeepTreeCheckedOnce(20, 250);
+    assertDeepTreeCheckedOnce(20, 500);
+  }
+
+  private void assertDeepTreeCheckedOnce(int depth, int filesPerLevel) throws IOException {
+    Path root = Files.createDirectory(dir.resolve("tree" + filesPerLevel));
+    Path level = root;
+    for (int i = 0; i < depth; i++) {
+      level = Files.createDirectory(level.resolve("level" + i));
+      for (int j = 0; j < filesPerLevel; j++) {
+        Files.createFile(level.resolve("Source" + j + ".java"));
+      }
+    }
+
+    Map<Path, Integer> visits = new java.util.HashMap<>();
+    CodelineFailureRule.SourceVisitor visitor = new CodelineFailureRule.SourceVisitor(QUIET_LOG, SourceFilter.DEFAULT) {
+      @Override
+      public FileVisitResult preVisitDirectory(Path directory, BasicFileAttributes attrs) {
+        visits.merge(directory, 1, Integer::sum);
+        return super.preVisitDirectory(directory, attrs);
+      }
+
+      @Override
+      public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+        visits.merge(file, 1, Integer::sum);
+        return super.visitFile(file, attrs);
+      }
+    };
+    java.util.List<File> walked = walkFiles(QUIET_LOG, root.toFile(), "test", visitor);
+
+    assertEquals(visits.size(), depth + 1 + depth * filesPerLevel, "every directory and file should be visited");
+    assertEquals(HashSet.ofAll(visits.values()), HashSet.of(1), "nothing should be visited twice");
+    assertEquals(walked.size(), depth * filesPerLevel);
+
+    AtomicInteger processed = new AtomicInteger();
+    List<Validation<EnforcerRuleException, File>> results = checkFiles(QUIET_LOG, root.toFile(), "test", file -> {
+      processed.incrementAndGet();
+      return List.of(invalid(new EnforcerRuleException(file.getPath())));
+    });
+
+    int expected = depth * filesPerLevel;
+    assertEquals(processed.get(), expected, "every file should be processed exactly once");
+    assertEquals(results.size(), expected, "every result should be collected exactly once");
+    assertEquals(results.map(v -> v.getError().getMessage()).distinct().size(), expected);
+  }
+
+  @Test
+  public void testParallelResultsMatchSequentialResults() throws Exception {
+    for (int i = 0; i < 200; i++) {
+      write(String.format("p%d/q%d/Source%d.java", i % 7, i % 3, i), i % 4 == 0 ? "// TODO\n// TODO\n" : "class Clean {}\n");
+    }
+    LinePatterns patterns = LinePatterns.compile(Arrays.asList("TODO"));
+    CodelineFailureRule rule = new CodelineFailureRule();
+    Function1<File, List<Validation<EnforcerRuleException, File>>> process = file -> {
+      // finish files out of order, as a busy pool would
+      LockSupport.parkNanos(ThreadLocalRandom.current().nextLong(2_000_000));
+      return rule.checkPatterns(new SourceFile(file), patterns);
+    };
+
+    List<String> sequential = describe(checkFiles(QUIET_LOG, dir.toFile(), "test", SourceFilter.DEFAULT, process));
+    ForkJoinPool pool = new ForkJoinPool(4);
+    try {
+      List<String> parallel = describe(checkFiles(QUIET_LOG, dir.toFile(), "test", SourceFilter.DEFAULT, pool, process));
+      assertEquals(parallel, sequential);
+    } finally {
+      pool.shutdown();
+    }
+    assertEquals(sequential.size(), 200 - 50 + 50 * 2);
+  }
+
+  private static List<String> describe(List<Validation<EnforcerRuleException, File>> results) {
+    return results.map(v -> v.isValid() ? "valid " + v.get().getPath() : v.getError().getMessage());
+  }
+
+  private static final String EXAMPLE = "package p;\n"
+                                        + "\n"
+                                        + "import java.util.Date;\n"
+                                        + "\n"
+                                        + "// TODO\n"
+                                        + "class Example {\n"
+                                        + "  private Date unused;\n"
+                                        + "  void run() {\n"
+                                        + "    System.out.println();\n"
+                                        + "  }\n"
+                                        + "}\n";
+
+  @Test
+  public void testEachFileIsReadOnceAndParsedAtMostOnce() throws Exception {
+    File example = write("src/p/Example.java", EXAMPLE).toFile();
+    CodelineFailureRule rule = new CodelineFailureRule();
+    CodelineDaemon.configure(rule, "patterns", "TODO");
+    CodelineDaemon.configure(rule, "classes", "java.util.Date");
+    CodelineDaemon.configure(rule, "bannedMethodCalls", "println");
+    CodelineDaemon.configure(rule, "checkPrivates", "true");
+    CountingScanService service = new CountingScanService();
+
+    List<Validation<EnforcerRuleException, File>> results =
+        rule.prepare(QUIET_LOG, service, List.of(dir.resolve("src").toFile()), null).apply(example);
+    assertEquals(results.size(), 4, describe(results).mkString("\n"));
+    assertEquals(service.cache.lookups.get(), 1, "the unit is only looked for once");
+    assertEquals(service.cache.parses.get(), 1, "the unit is only parsed once");
+
+    SourceFile source = new SourceFile(example);
+    rule.checkPatterns(source, LinePatterns.compile(Arrays.asList("TODO")));
+    long readNanos = source.getReadNanos();
+    assertNotEquals(readNanos, 0L);
+    rule.checkClasses(source, ImportBans.compile(Arrays.asList("java.util.Date")));
+    StructuralRules.compile(Arrays.asList("println"), empty(), empty(), empty()).check(source);
+    long parseNanos = source.getParseNanos();
+    assertNotEquals(parseNanos, 0L);
+    CheckUnusedPrivateFields.checkUnusedPrivates(source);
+    assertEquals(source.getReadNanos(), readNanos, "the file is only read once");
+    assertEquals(source.getParseNanos(), parseNanos, "the file is only parsed once");
+  }
+
+  @Test
+  public void testLinePatternsAloneNeverParse() throws Exception {
+    File example = write("src/p/Example.java", EXAMPLE).toFile();
+    CodelineFailureRule rule = new CodelineFailureRule();
+    CodelineDaemon.configure(rule, "patterns", "TODO");
+    CodelineDaemon.configure(rule, "patterns", "println");
+    CountingScanService service = new CountingScanService();
+
+    List<Validation<EnforcerRuleException, File>> results =
+        rule.prepare(QUIET_LOG, service, List.of(dir.resolve("src").toFile()), null).apply(example);
+    assertEquals(results.size(), 2, describe(results).mkString("\n"));
+    assertEquals(service.cache.lookups.get(), 0, "no check asked for the unit");
+    assertEquals(service.cache.parses.get(), 0);
+  }
+
+  private static <T> java.util.List<T> empty() {
+    return Collections.emptyList();
+  }
+
+  /**
+   * Hands out a parse cache that counts how often units are looked for and parsed.
+   */
+  private static class CountingScanService extends ScanService {
+    final CountingParseCache cache = new CountingParseCache();
+
+    @Override
+    public synchronized ParseCache parseCache(long maxWeight) {
+      return cache;
+    }
+  }
+
+  private static class CountingParseCache extends ParseCache {
+    final AtomicInteger lookups = new AtomicInteger();
+
+    final AtomicInteger parses = new AtomicInteger();
+
+    CountingParseCache() {
+      super(DEFAULT_MAX_WEIGHT);
+    }
+
+    @Override
+    public Optional<CompilationUnit> get(File file, CharSequence source) {
+      lookups.incrementAndGet();
+      return super.get(file, source);
+    }
+
+    @Override
+    public void put(File file, CharSequence source, CompilationUnit compilationUnit) {
+      parses.incrementAndGet();
+      super.put(file, source, compilationUnit);
+    }
+  }
+
+  @Test
+  public void testRunningTwiceInOneSessionScansNothingTheSecondTime() throws Exception {
+    for (int i = 0; i < 5; i++) {
+      write("src/main/java/p/Source" + i + ".java", "package p;\n\nclass Source" + i + " {\n}\n");
+    }
+    MavenProject project = new MavenProject();
+    project.setFile(dir.resolve("pom.xml").toFile());
+    Build build = new Build();
+    build.setDirectory(dir.resolve("target").toString());
+    build.setSourceDirectory(dir.resolve("src/main/java").toString());
+    build.setTestSourceDirectory(dir.resolve("src/test/java").toString());
+    project.getModel().setBuild(build);
+    MavenSession session = new MavenSession(
+        null, (RepositorySystemSession) null, new DefaultMavenExecutionRequest(), new DefaultMavenExecutionResult());
+
+    assertEquals(execute(project, session), "Code enforcer scanned 5 files, 0 from the result cache or pre-scan");
+    assertEquals(execute(project, session), "Code enforcer scanned 5 files, 5 from the result cache or pre-scan");
+  }
+
+  /**
+   * Runs a fresh rule, as Maven would for another execution, returning the first line of its metrics summary.
+   */
+  private String execute(MavenProject project, MavenSession session) throws Exception {
+    CodelineFailureRule rule = new CodelineFailureRule();
+    CodelineDaemon.configure(rule, "patterns", "TODO");
+    CodelineDaemon.configure(rule, "reportMetrics", "true");
+    CodelineDaemon.configure(rule, "threads", "1");
+    RecordingLog log = new RecordingLog();
+    rule.execute((EnforcerRuleHelper) Proxy.newProxyInstance(
+        getClass().getClassLoader(), new Class<?>[] {EnforcerRuleHelper.class}, (proxy, method, args) -> {
+          if ("getLog".equals(method.getName())) {
+            return log;
+          }
+          if ("evaluate".equals(method.getName())) {
+            return "${project}".equals(args[0]) ? project : "${session}".equals(args[0]) ? session : null;
+          }
+          throw new UnsupportedOperationException(method.getName());
+        }));
+    return log.messages("info").stream().filter(message -> message.startsWith("Code enforcer scanned")).findFirst()
+              .orElseThrow(AssertionError::new).replaceAll(" \\(\\d+ KB\\) in \\d+ ms", "");
+  }
+
+  @Test
+  public void testUnreadableFilesAreReportedByTheClassesCheck() {
+    File missing = dir.resolve("Missing.java").toFile();
+    List<Validation<EnforcerRuleException, File>> results =
+        new CodelineFailureRule().checkClasses(new SourceFile(missing), ImportBans.compile(Arrays.asList("java.util.Date")));
+
+    Violation violation = (Violation) results.single().getError();
+    assertEquals(violation.getRule(), "classes");
+    assertEquals(violation.getPath(), missing.getPath());
+  }
+
+  @Test
+  public void testCacheIdsTellConfigurationsApart() throws ReflectiveOperationException {
+    CodelineFailureRule defaultEncoding = new CodelineFailureRule();
+    CodelineFailureRule aliasedEncoding = new CodelineFailureRule();
+    CodelineDaemon.configure(aliasedEncoding, "encoding", "utf8");
+    assertEquals(aliasedEncoding.getCacheId(), defaultEncoding.getCacheId());
+
+    CodelineFailureRule onePattern = new CodelineFailureRule();
+    CodelineDaemon.configure(onePattern, "patterns", "a, b");
+    CodelineFailureRule twoPatterns = new CodelineFailureRule();
+    CodelineDaemon.configure(twoPatterns, "patterns", "a");
+    CodelineDaemon.configure(twoPatterns, "patterns", "b");
+    assertNotEquals(onePattern.getCacheId(), twoPatterns.getCacheId());
+  }
 
-public class CodelineFailureRuleTest {
   @Test(enabled = false)
   public void testPrivates() {
     CompilationUnit cu = parseCompilationUnit(
@@ -0,0 +1,82 @@
+package com.theoryinpractise.codelinefailure;
+
+import io.vavr.control.Option;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+public class GitChangesTest extends TempDirectoryTest {
+  @Test
+  public void testChangedFilesSinceBaseRef() throws Exception {
+    File repo = dir.toFile();
+    write("src/Unchanged.java");
+    write("src/Modified.java");
+    write("src/Deleted.java");
+    write("src/Committed.java");
+    write(".gitignore", "*.log\n");
+    git(repo, "init", "-q");
+    git(repo, "add", "-A");
+    git(repo, "-c", "user.name=test", "-c", "user.email=test@example.com", "commit", "-q", "-m", "base");
+    git(repo, "tag", "base");
+
+    write("src/Committed.java", "class Committed { int changed; }\n");
+    git(repo, "-c", "user.name=test", "-c", "user.email=test@example.com", "commit", "-q", "-am", "change");
+    write("src/Modified.java", "class Modified { int changed; }\n");
+    write("src/Staged.java");
+    git(repo, "add", "src/Staged.java");
+    write("src/Untracked.java");
+    write("src/ignored.log");
+    Files.delete(dir.resolve("src/Deleted.java"));
+
+    Set<File> changed = GitChanges.changedFiles(QUIET_LOG, new File(repo, "src"), "base").get();
+
+    assertEquals(
+        changed.stream().map(File::getName).collect(Collectors.toCollection(TreeSet::new)).toString(),
+        "[Committed.java, Modified.java, Staged.java, Untracked.java]");
+    assertEquals(changed.iterator().next(), changed.iterator().next().getCanonicalFile());
+  }
+
+  @Test
+  public void testPathsAreResolvedFromTheRootWhenDiffIsRelative() throws Exception {
+    File repo = dir.toFile();
+    write("module/src/Modified.java");
+    git(repo, "init", "-q");
+    git(repo, "config", "diff.relative", "true");
+    git(repo, "add", "-A");
+    git(repo, "-c", "user.name=test", "-c", "user.email=test@example.com", "commit", "-q", "-m", "base");
+    write("module/src/Modified.java", "class Modified { int changed; }\n");
+
+    Set<File> changed = GitChanges.changedFiles(QUIET_LOG, new File(repo, "module"), "HEAD").get();
+
+    assertEquals(changed, Collections.singleton(new File(repo, "module/src/Modified.java").getCanonicalFile()));
+  }
+
+  @Test
+  public void testUnknownRefGivesNoAnswer() {
+    Option<Set<File>> changed = GitChanges.changedFiles(QUIET_LOG, dir.toFile(), "main");
+    assertFalse(changed.isDefined());
+  }
+
+  private void write(String path) throws IOException {
+    String name = path.substring(path.lastIndexOf('/') + 1).replace(".java", "");
+    write(path, "class " + name + " {}\n");
+  }
+
+  private static void git(File directory, String... arguments) throws IOException, InterruptedException {
+    String[] command = new String[arguments.length + 1];
+    command[0] = "git";
+    System.arraycopy(arguments, 0, command, 1, arguments.length);
+    Process process = new ProcessBuilder(command).directory(directory).inheritIO().start();
+    assertEquals(process.waitFor(), 0, String.join(" ", command));
+  }
+}
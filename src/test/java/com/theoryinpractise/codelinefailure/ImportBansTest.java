@@ -0,0 +1,72 @@
+package com.theoryinpractise.codelinefailure;
+
+import org.testng.annotations.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.testng.Assert.assertEquals;
+
+public class ImportBansTest {
+  private static final List<String> BANS = Arrays.asList(
+      "java\\.util\\.Date",
+      "java\\.sql\\..*",
+      "org.junit.*",
+      "com.example.Legacy",
+      "com\\.example\\.Outer\\$Inner",
+      "(?i)sun\\.misc\\.unsafe",
+      "javax\\.(swing|awt)\\..*",
+      "(\\w+)\\.\\1\\.Twice");
+
+  private static final List<String> IMPORTS = Arrays.asList(
+      "java.util.Date",
+      "java.util.DateTime",
+      "java.util.Dat",
+      "java.sql.Connection",
+      "java.sql",
+      "java.sqlx.Thing",
+      "org.junit",
+      "org.junit.Test",
+      "orgXjunit",
+      "com.example.Legacy",
+      "comXexampleXLegacy",
+      "com.example.Legacy2",
+      "com.example.Outer$Inner",
+      "sun.misc.Unsafe",
+      "javax.swing.JFrame",
+      "javax.sound.Clip",
+      "foo.foo.Twice",
+      "foo.bar.Twice",
+      "java.util.List");
+
+  @Test
+  public void testBansAgreeWithPlainRegexes() {
+    assertBansAgree(BANS);
+  }
+
+  @Test
+  public void testBansThatCantBeMergedStillMatchAlone() {
+    assertBansAgree(Arrays.asList("(?<n>java)\\.util\\.Da.*", "(?<n>org)\\.junit\\..*", "javax\\.(swing|awt)\\..*"));
+    assertBansAgree(Arrays.asList("(?x) sun \\. misc \\. .* # a comment", "javax\\.(swing|awt)\\..*"));
+    assertBansAgree(Arrays.asList("\\Qcom.example.Outer$Inner", "javax\\.(swing|awt)\\..*"));
+  }
+
+  private static void assertBansAgree(List<String> banList) {
+    ImportBans bans = ImportBans.compile(banList);
+    for (String anImport : IMPORTS) {
+      boolean expected = banList.stream().anyMatch(ban -> Pattern.compile(ban).matcher(anImport).matches());
+      assertEquals(bans.test(anImport), expected, anImport);
+    }
+  }
+
+  @Test
+  public void testEachBanAgreesWithItsRegex() {
+    for (String ban : BANS) {
+      ImportBans bans = ImportBans.compile(Arrays.asList(ban));
+      for (String anImport : IMPORTS) {
+        assertEquals(bans.test(anImport), Pattern.compile(ban).matcher(anImport).matches(), ban + " against " + anImport);
+      }
+    }
+  }
+}
@@ -0,0 +1,79 @@
+package com.theoryinpractise.codelinefailure;
+
+import com.github.javaparser.Position;
+import com.github.javaparser.ast.CompilationUnit;
+import com.github.javaparser.ast.ImportDeclaration;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.testng.Assert.assertEquals;
+
+public class ImportHeaderTest {
+  private static final String HEADER = "\uFEFF/* licence\n * import not.a.Real; */\r\n"
+                                       + "@Generated(value = {\"a)b\", \"import x.y;\"}, comments = ')') // import no.Way;\n"
+                                       + "package com.example ;\n"
+                                       + "\n"
+                                       + "import java.util.List;\r"
+                                       + "import static java.util.Collections.emptyList;\n"
+                                       + "import java . util . /* odd */ Map;\n"
+                                       + "import java.util.concurrent.*;;\n"
+                                       + "import static org.testng.Assert.*;\n"
+                                       + "\n"
+                                       + "@Deprecated\n"
+                                       + "public class Example {\n"
+                                       + "  String s = \"\\nimport not.an.Import;\";\n"
+                                       + "}\n";
+
+  @Test
+  public void testImportsAgreeWithJavaParser() throws IOException {
+    assertEquals(describe(ImportHeader.read(HEADER)), describeParsed(HEADER));
+    assertEquals(describe(ImportHeader.read(new StringReader(HEADER + "import not.reached;\n"))), describeParsed(HEADER));
+  }
+
+  @Test
+  public void testImportsAgreeWithJavaParserForThisProject() throws IOException {
+    for (File file : javaFiles(new File("src"), new ArrayList<>())) {
+      SourceFile source = new SourceFile(file);
+      assertEquals(describe(source.getImports()), describeParsed(source.getText()), file.getPath());
+    }
+  }
+
+  @Test
+  public void testMalformedImportEndsTheHeader() throws IOException {
+    assertEquals(describe(ImportHeader.read("import a.B;\nimport c.;\nimport d.E;\n")), "a.B@1:1");
+  }
+
+  private static String describe(List<ImportHeader.Import> imports) {
+    return imports.stream().map(i -> i.getName() + "@" + i.getLine() + ":" + i.getColumn()).collect(Collectors.joining(", "));
+  }
+
+  private static String describeParsed(String source) {
+    CompilationUnit cu = ParserSupport.parseCompilationUnit(source).get();
+    List<String> imports = new ArrayList<>();
+    for (ImportDeclaration declaration : cu.getImports()) {
+      Position begin = declaration.getBegin().orElse(Position.HOME);
+      imports.add(declaration.getNameAsString() + "@" + begin.line + ":" + begin.column);
+    }
+    return String.join(", ", imports);
+  }
+
+  private static List<File> javaFiles(File dir, List<File> files) {
+    File[] children = dir.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        if (child.isDirectory()) {
+          javaFiles(child, files);
+        } else if (child.getName().endsWith(".java")) {
+          files.add(child);
+        }
+      }
+    }
+    return files;
+  }
+}
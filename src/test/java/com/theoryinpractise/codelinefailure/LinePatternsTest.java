@@ -0,0 +1,113 @@
+package com.theoryinpractise.codelinefailure;
+
+import org.testng.annotations.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.testng.Assert.assertEquals;
+
+public class LinePatternsTest {
+  private static final List<String> PATTERNS = Arrays.asList(
+      "System\\.out\\.println",
+      "printStackTrace\\(\\)",
+      "^import java\\.util\\.Date;",
+      "new\\s+Date\\(",
+      "(?i)todo",
+      "\\bassert\\b|@Ignore",
+      "(\\w)\\1{3}",
+      "[0-9]+L",
+      "x*yz");
+
+  private static final List<String> LINES = Arrays.asList(
+      "    System.out.println(\"hello\");",
+      "  } catch (Exception e) { e.printStackTrace(); }",
+      "import java.util.Date;",
+      "  // import java.util.Date;",
+      "    Date d = new   Date();",
+      "    // TODO fix this",
+      "    assert x != null;",
+      "  @Ignore",
+      "    String s = \"aaaa\";",
+      "    long l = 10L;",
+      "    xxyz",
+      "    nothing to see here",
+      "");
+
+  @Test
+  public void testMatchesAgreeWithPlainRegexes() {
+    assertMatchesAgree(PATTERNS);
+  }
+
+  @Test
+  public void testCombinedAlternationMatchesAgreeWithPlainRegexes() {
+    List<String> withoutBackReferences = new ArrayList<>(PATTERNS);
+    withoutBackReferences.remove("(\\w)\\1{3}");
+    assertMatchesAgree(withoutBackReferences);
+  }
+
+  @Test
+  public void testPatternsThatCantBeMergedStillMatchAlone() {
+    List<String> patterns = Arrays.asList(
+        "(?<n>Sys)tem",
+        "(?<n>Da)te",
+        "(?x) T O D O  # a comment, which must not swallow the patterns after it",
+        "\\Q(\"hello\")",
+        "[0-9]+L");
+    assertMatchesAgree(patterns);
+    assertMatchesAgree(patterns.subList(0, 2));
+    assertMatchesAgree(Arrays.asList("\\Qx*", "[0-9]+L"));
+  }
+
+  @Test
+  public void testAlternationsThatDontCompileTogetherFallBack() {
+    assertEquals(LinePatterns.alternation(Arrays.asList("(?<n>foo)", "(?<n>bar)")), null);
+    assertEquals(LinePatterns.alternation(Arrays.asList("foo", "bar")).pattern(), "(?:foo)|(?:bar)");
+  }
+
+  private static void assertMatchesAgree(List<String> patterns) {
+    LinePatterns linePatterns = LinePatterns.compile(patterns);
+    LinePatterns.Scanner scanner = linePatterns.scanner();
+
+    for (String line : LINES) {
+      List<String> expected = new ArrayList<>();
+      for (String pattern : patterns) {
+        if (Pattern.compile(pattern).matcher(line).find()) {
+          expected.add(pattern);
+        }
+      }
+
+      List<String> actual = new ArrayList<>();
+      scanner.scan(line, (index, lineNumber, lineStart, lineEnd) -> actual.add(linePatterns.source(index)));
+
+      assertEquals(actual, expected, "Matches for: " + line);
+    }
+  }
+
+  @Test
+  public void testScanSplitsLinesLikeReadLine() {
+    LinePatterns linePatterns = LinePatterns.compile(Arrays.asList("^b", "c$"));
+    String text = "a\r\nb\rc\n\nbc";
+
+    List<String> found = new ArrayList<>();
+    linePatterns.scanner().scan(
+        text,
+        (index, lineNumber, lineStart, lineEnd)
+            -> found.add(lineNumber + ":" + linePatterns.source(index) + ":" + text.substring(lineStart, lineEnd)));
+
+    assertEquals(found, Arrays.asList("2:^b:b", "3:c$:c", "5:^b:bc", "5:c$:bc"));
+  }
+
+  @Test
+  public void testLiteralPrefix() {
+    assertEquals(LinePatterns.literalPrefix("System\\.out\\.println"), "System.out.println");
+    assertEquals(LinePatterns.literalPrefix("^import java"), "import java");
+    assertEquals(LinePatterns.literalPrefix("new\\s+Date"), "new");
+    assertEquals(LinePatterns.literalPrefix("colou?r"), "colo");
+    assertEquals(LinePatterns.literalPrefix("ab+c"), "ab");
+    assertEquals(LinePatterns.literalPrefix("(?i)todo"), "");
+    assertEquals(LinePatterns.literalPrefix("foo|bar"), "");
+  }
+}
@@ -0,0 +1,41 @@
+package com.theoryinpractise.codelinefailure;
+
+import com.github.javaparser.ast.CompilationUnit;
+import org.testng.annotations.Test;
+
+import java.io.File;
+
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class ParseCacheTest {
+  private static final String FIRST = "class A {}";
+
+  private static final String SECOND = "class B {}";
+
+  @Test
+  public void testHitsRequireTheSamePathAndText() {
+    ParseCache cache = new ParseCache(1000);
+    CompilationUnit unit = ParserSupport.parseCompilationUnit(FIRST).get();
+    cache.put(new File("A.java"), FIRST, unit);
+
+    assertSame(cache.get(new File("A.java"), new StringBuilder(FIRST)).get(), unit);
+    assertFalse(cache.get(new File("A.java"), "class A { }").isPresent());
+    assertFalse(cache.get(new File("B.java"), FIRST).isPresent());
+  }
+
+  @Test
+  public void testLeastRecentlyUsedUnitsAreEvictedByWeight() {
+    ParseCache cache = new ParseCache(FIRST.length() + SECOND.length());
+    cache.put(new File("A.java"), FIRST, ParserSupport.parseCompilationUnit(FIRST).get());
+    cache.put(new File("B.java"), SECOND, ParserSupport.parseCompilationUnit(SECOND).get());
+    cache.get(new File("A.java"), FIRST);
+
+    cache.put(new File("C.java"), SECOND, ParserSupport.parseCompilationUnit(SECOND).get());
+
+    assertTrue(cache.get(new File("A.java"), FIRST).isPresent());
+    assertFalse(cache.get(new File("B.java"), SECOND).isPresent());
+    assertTrue(cache.get(new File("C.java"), SECOND).isPresent());
+  }
+}
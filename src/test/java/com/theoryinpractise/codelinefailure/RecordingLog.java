@@ -0,0 +1,118 @@
+package com.theoryinpractise.codelinefailure;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.Collectors;
+
+/**
+ * Keeps every message logged, as {@code level: message}, for tests to inspect. Safe to log to from several threads.
+ */
+class RecordingLog implements Log {
+  private final List<String> lines = new CopyOnWriteArrayList<>();
+
+  /**
+   * Returns the messages logged at {@code level}, in order.
+   */
+  List<String> messages(String level) {
+    String prefix = level + ": ";
+    return lines.stream().filter(line -> line.startsWith(prefix)).map(line -> line.substring(prefix.length()))
+                .collect(Collectors.toList());
+  }
+
+  /**
+   * Returns true if a message starting with {@code start} was logged at {@code level}.
+   */
+  boolean logged(String level, String start) {
+    return messages(level).stream().anyMatch(message -> message.startsWith(start));
+  }
+
+  private void record(String level, CharSequence content, Throwable error) {
+    String message = content != null ? content.toString() : "";
+    if (error != null) {
+      message = message.isEmpty() ? error.toString() : message + " " + error;
+    }
+    lines.add(level + ": " + message);
+  }
+
+  @Override
+  public boolean isDebugEnabled() {
+    return true;
+  }
+
+  @Override
+  public void debug(CharSequence content) {
+    record("debug", content, null);
+  }
+
+  @Override
+  public void debug(CharSequence content, Throwable error) {
+    record("debug", content, error);
+  }
+
+  @Override
+  public void debug(Throwable error) {
+    record("debug", null, error);
+  }
+
+  @Override
+  public boolean isInfoEnabled() {
+    return true;
+  }
+
+  @Override
+  public void info(CharSequence content) {
+    record("info", content, null);
+  }
+
+  @Override
+  public void info(CharSequence content, Throwable error) {
+    record("info", content, error);
+  }
+
+  @Override
+  public void info(Throwable error) {
+    record("info", null, error);
+  }
+
+  @Override
+  public boolean isWarnEnabled() {
+    return true;
+  }
+
+  @Override
+  public void warn(CharSequence content) {
+    record("warn", content, null);
+  }
+
+  @Override
+  public void warn(CharSequence content, Throwable error) {
+    record("warn", content, error);
+  }
+
+  @Override
+  public void warn(Throwable error) {
+    record("warn", null, error);
+  }
+
+  @Override
+  public boolean isErrorEnabled() {
+    return true;
+  }
+
+  @Override
+  public void error(CharSequence content) {
+    record("error", content, null);
+  }
+
+  @Override
+  public void error(CharSequence content, Throwable error) {
+    record("error", content, error);
+  }
+
+  @Override
+  public void error(Throwable error) {
+    record("error", null, error);
+  }
+}
@@ -0,0 +1,202 @@
+package com.theoryinpractise.codelinefailure;
+
+import com.github.javaparser.ParserConfiguration;
+
+import io.vavr.collection.List;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class ReferenceIndexTest extends TempDirectoryTest {
+  private ParserConfiguration parserConfiguration;
+
+  @BeforeMethod
+  public void createParserConfiguration() throws IOException {
+    parserConfiguration = ParserSupport.parserConfiguration(List.of(Files.createDirectories(dir.resolve("src")).toFile()));
+  }
+
+  @Test
+  public void testCallsAreMatchedByArityAndVarargs() throws IOException {
+    write("src/p/Library.java",
+          "package p;\n"
+          + "\n"
+          + "public class Library {\n"
+          + "  public void one(int a) {}\n"
+          + "  public void two(int a, int b) {}\n"
+          + "  public void overloaded(int a) {}\n"
+          + "  public void overloaded(int a, int b) {}\n"
+          + "  public void varargs(String... values) {}\n"
+          + "  public void referenced(int a) {}\n"
+          + "  public void recursive(int n) {\n"
+          + "    recursive(n - 1);\n"
+          + "  }\n"
+          + "  public void format(int n) {\n"
+          + "    format(String.valueOf(n));\n"
+          + "  }\n"
+          + "  public void format(String s) {}\n"
+          + "}\n");
+    write("src/p/Caller.java",
+          "package p;\n"
+          + "\n"
+          + "class Caller {\n"
+          + "  static void main(String[] args) {\n"
+          + "    Library library = new Library();\n"
+          + "    library.one(1, 2);\n"
+          + "    library.two(1, 2);\n"
+          + "    library.overloaded(1);\n"
+          + "    library.varargs(\"a\", \"b\", \"c\");\n"
+          + "    java.util.function.Consumer<Integer> c = library::referenced;\n"
+          + "  }\n"
+          + "}\n");
+
+    assertEquals(unused(collectAll()), List.of("Library.java:4:3 one", "Library.java:7:3 overloaded", "Library.java:10:3 recursive"));
+  }
+
+  @Test
+  public void testMethodsThatMayBeCalledFromElsewhereAreNotCandidates() throws IOException {
+    write("src/p/Shape.java",
+          "package p;\n"
+          + "\n"
+          + "public interface Shape {\n"
+          + "  double area();\n"
+          + "}\n");
+    write("src/p/Base.java",
+          "package p;\n"
+          + "\n"
+          + "public abstract class Base {\n"
+          + "  public abstract void abstractMethod();\n"
+          + "  public void inherited() {}\n"
+          + "}\n");
+    write("src/p/Square.java",
+          "package p;\n"
+          + "\n"
+          + "import java.util.Comparator;\n"
+          + "\n"
+          + "public class Square extends Base implements Shape, Runnable, Comparable<Square> {\n"
+          + "  public double area() { return 1; }\n"
+          + "  public void run() {}\n"
+          + "  public int compareTo(Square other) { return 0; }\n"
+          + "  public void abstractMethod() {}\n"
+          + "  public void inherited() {}\n"
+          + "  public String toString() { return \"\"; }\n"
+          + "  @Override\n"
+          + "  public int hashCode() { return 0; }\n"
+          + "  @javax.inject.Inject\n"
+          + "  public void injected() {}\n"
+          + "  @SuppressWarnings(\"unusedMember\")\n"
+          + "  public void suppressed() {}\n"
+          + "  public String getName() { return \"\"; }\n"
+          + "  public static void main(String[] args) {}\n"
+          + "  public void unused() {}\n"
+          + "  Comparator<String> anonymous = new Comparator<String>() {\n"
+          + "    public int compare(String a, String b) { return 0; }\n"
+          + "    public void helper() {}\n"
+          + "  };\n"
+          + "}\n");
+
+    assertEquals(unused(collectAll()), List.of("Base.java:5:3 inherited", "Square.java:20:3 unused"));
+  }
+
+  @Test
+  public void testUnresolvableSupertypesLeaveTheirMethodsAlone() throws IOException {
+    write("src/p/Plugin.java",
+          "package p;\n"
+          + "\n"
+          + "public class Plugin extends org.example.Missing {\n"
+          + "  public void execute() {}\n"
+          + "}\n");
+    write("src/p/Plain.java",
+          "package p;\n"
+          + "\n"
+          + "public class Plain {\n"
+          + "  public void execute() {}\n"
+          + "}\n");
+
+    assertEquals(unused(collectAll()), List.of("Plain.java:4:3 execute"));
+  }
+
+  @Test
+  public void testIndexIsReloadedAndStaleEntriesDropped() throws IOException {
+    Path indexFile = dir.resolve("target/references.index");
+    write("src/p/Library.java", "package p;\n\npublic class Library {\n  public void helper() {}\n}\n");
+    write("src/p/Caller.java", "package p;\n\nclass Caller {\n  static void main(String[] args) {\n    new Library().helper();\n  }\n}\n");
+
+    ReferenceIndex first = ReferenceIndex.load(QUIET_LOG, indexFile, "config");
+    collect(first, "src/p/Library.java");
+    collect(first, "src/p/Caller.java");
+    assertEquals(unused(first), List.empty());
+    first.save(QUIET_LOG);
+
+    ReferenceIndex reloaded = ReferenceIndex.load(QUIET_LOG, indexFile, "config");
+    assertEquals(collect(reloaded, "src/p/Library.java").getParseNanos(), 0L, "unchanged files are not parsed again");
+    assertEquals(collect(reloaded, "src/p/Caller.java").getParseNanos(), 0L, "unchanged files are not parsed again");
+    assertEquals(unused(reloaded), List.empty());
+
+    Files.delete(dir.resolve("src/p/Caller.java"));
+    ReferenceIndex afterDelete = ReferenceIndex.load(QUIET_LOG, indexFile, "config");
+    collect(afterDelete, "src/p/Library.java");
+    assertEquals(unused(afterDelete), List.of("Library.java:4:3 helper"));
+    afterDelete.save(QUIET_LOG);
+
+    write("src/p/Caller.java", "package p;\n\nclass Caller {\n  static void main(String[] args) {\n    new Library().helper();\n  }\n}\n");
+    ReferenceIndex recreated = ReferenceIndex.load(QUIET_LOG, indexFile, "config");
+    collect(recreated, "src/p/Library.java");
+    assertTrue(collect(recreated, "src/p/Caller.java").getParseNanos() > 0, "the dropped entry is not reused");
+    assertEquals(unused(recreated), List.empty());
+
+    write("src/p/Library.java", "package p;\n\npublic class Library {\n  public void helper() {}\n  public void added() {}\n}\n");
+    ReferenceIndex modified = ReferenceIndex.load(QUIET_LOG, indexFile, "config");
+    assertTrue(collect(modified, "src/p/Library.java").getParseNanos() > 0, "changed files are parsed again");
+    collect(modified, "src/p/Caller.java");
+    assertEquals(unused(modified), List.of("Library.java:5:3 added"));
+
+    ReferenceIndex reconfigured = ReferenceIndex.load(QUIET_LOG, indexFile, "other config");
+    assertTrue(collect(reconfigured, "src/p/Caller.java").getParseNanos() > 0, "other configurations start afresh");
+
+    Files.write(indexFile, "not an index".getBytes(StandardCharsets.UTF_8));
+    ReferenceIndex corrupt = ReferenceIndex.load(QUIET_LOG, indexFile, "config");
+    assertTrue(collect(corrupt, "src/p/Caller.java").getParseNanos() > 0, "unreadable indexes are discarded");
+  }
+
+  @Test
+  public void testForgottenFilesNoLongerCount() throws IOException {
+    write("src/p/Library.java", "package p;\n\npublic class Library {\n  public void helper() {}\n}\n");
+    write("src/p/Caller.java", "package p;\n\nclass Caller {\n  static void main(String[] args) {\n    new Library().helper();\n  }\n}\n");
+    ReferenceIndex index = collectAll();
+
+    index.forget(dir.resolve("src/p/Caller.java").toFile());
+
+    assertEquals(unused(index), List.of("Library.java:4:3 helper"));
+  }
+
+  private ReferenceIndex collectAll() throws IOException {
+    ReferenceIndex index = ReferenceIndex.load(QUIET_LOG, dir.resolve("target/references.index"), "config");
+    for (File file : CodelineFailureRule.walkFiles(QUIET_LOG, dir.resolve("src").toFile(), "test", SourceFilter.DEFAULT)) {
+      index.collect(new SourceFile(file, StandardCharsets.UTF_8, parserConfiguration, null));
+    }
+    return index;
+  }
+
+  private SourceFile collect(ReferenceIndex index, String path) throws IOException {
+    SourceFile source = new SourceFile(dir.resolve(path).toFile(), StandardCharsets.UTF_8, parserConfiguration, null);
+    index.collect(source);
+    return source;
+  }
+
+  private static List<String> unused(ReferenceIndex index) {
+    return index.unusedMethods().map(v -> {
+      Violation violation = (Violation) v.getError();
+      String name = violation.getMessage().replaceAll(".*Unused members found:  (\\w+).*", "$1");
+      return new File(violation.getPath()).getName() + ":" + violation.getLine() + ":" + violation.getColumn() + " " + name;
+    });
+  }
+}
@@ -0,0 +1,130 @@
+package com.theoryinpractise.codelinefailure;
+
+import io.vavr.collection.List;
+import io.vavr.control.Option;
+import io.vavr.control.Validation;
+
+import org.apache.maven.enforcer.rule.api.EnforcerRuleException;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static io.vavr.control.Validation.invalid;
+import static io.vavr.control.Validation.valid;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class ResultCacheTest extends TempDirectoryTest {
+  @Test
+  public void testUnchangedFilesAreAnsweredFromTheCache() throws IOException {
+    File dirty = write("Dirty.java", "// TODO\n").toFile();
+    File clean = write("Clean.java", "class Clean {}\n").toFile();
+    storeAndSave("config", dirty, clean);
+
+    ResultCache cache = ResultCache.load(QUIET_LOG, cacheFile(), "config");
+    Violation violation = (Violation) cache.lookup(dirty).get().head().getError();
+    assertEquals(violation.getRule(), "patterns");
+    assertEquals(violation.getPath(), dirty.getPath());
+    assertEquals(violation.getLine(), 1);
+    assertEquals(violation.getMessage(), "found TODO");
+    assertEquals(violation.getSnippet(), "// TODO");
+    assertEquals(cache.lookup(clean).get(), List.of(valid(clean)));
+  }
+
+  @Test
+  public void testResultsStoredThisRunAreAnsweredByTheSameCache() throws IOException {
+    File dirty = write("Dirty.java", "// TODO\n").toFile();
+    ResultCache cache = ResultCache.load(QUIET_LOG, cacheFile(), "config");
+    cache.store(dirty, dirty.length(), dirty.lastModified(), results(dirty));
+
+    assertEquals(cache.lookup(dirty).get().head().getError().getMessage(), "found TODO");
+    assertTrue(dirty.setLastModified(dirty.lastModified() + 2000));
+    assertFalse(cache.lookup(dirty).isDefined(), "a file changed since it was stored is checked again");
+  }
+
+  @Test
+  public void testChangedConfigurationDiscardsTheCache() throws IOException {
+    File dirty = write("Dirty.java", "// TODO\n").toFile();
+    storeAndSave("config", dirty);
+
+    assertFalse(ResultCache.load(QUIET_LOG, cacheFile(), "other config").lookup(dirty).isDefined());
+  }
+
+  @Test
+  public void testChangedFilesAreCheckedAgain() throws IOException {
+    File resized = write("Resized.java", "// TODO\n").toFile();
+    File touched = write("Touched.java", "// TODO\n").toFile();
+    storeAndSave("config", resized, touched);
+
+    long lastModified = resized.lastModified();
+    write("Resized.java", "// TODO TODO\n");
+    assertTrue(resized.setLastModified(lastModified));
+    assertTrue(touched.setLastModified(touched.lastModified() + 2000));
+
+    ResultCache cache = ResultCache.load(QUIET_LOG, cacheFile(), "config");
+    assertFalse(cache.lookup(resized).isDefined(), "a file of another size is checked again");
+    assertFalse(cache.lookup(touched).isDefined(), "a file with another modification time is checked again");
+  }
+
+  @Test
+  public void testUnreadableCachesAreDiscarded() throws IOException {
+    File dirty = write("Dirty.java", "// TODO\n").toFile();
+    storeAndSave("config", dirty);
+    byte[] saved = Files.readAllBytes(cacheFile());
+
+    byte[] otherVersion = saved.clone();
+    otherVersion[7]++;
+    Files.write(cacheFile(), otherVersion);
+    assertFalse(ResultCache.load(QUIET_LOG, cacheFile(), "config").lookup(dirty).isDefined(), "another format version");
+
+    Files.write(cacheFile(), Arrays.copyOf(saved, saved.length - 5));
+    assertFalse(ResultCache.load(QUIET_LOG, cacheFile(), "config").lookup(dirty).isDefined(), "a truncated cache");
+
+    Files.write(cacheFile(), new byte[] {1, 2, 3});
+    assertFalse(ResultCache.load(QUIET_LOG, cacheFile(), "config").lookup(dirty).isDefined(), "not a cache at all");
+  }
+
+  @Test
+  public void testOnlyFilesSeenThisRunAreSavedAgain() throws IOException {
+    File retained = write("Retained.java", "// TODO\n").toFile();
+    File looked = write("Looked.java", "// TODO\n").toFile();
+    File skipped = write("Skipped.java", "// TODO\n").toFile();
+    storeAndSave("config", retained, looked, skipped);
+
+    ResultCache cache = ResultCache.load(QUIET_LOG, cacheFile(), "config");
+    cache.retain(retained);
+    cache.lookup(looked);
+    cache.save(QUIET_LOG);
+
+    ResultCache reloaded = ResultCache.load(QUIET_LOG, cacheFile(), "config");
+    assertTrue(reloaded.lookup(retained).isDefined(), "retained entries are kept");
+    assertTrue(reloaded.lookup(looked).isDefined(), "entries looked up are kept");
+    assertFalse(reloaded.lookup(skipped).isDefined(), "entries neither looked up nor retained are dropped");
+  }
+
+  private Path cacheFile() {
+    return dir.resolve("target/results.cache");
+  }
+
+  private void storeAndSave(String fingerprint, File... files) {
+    ResultCache cache = ResultCache.load(QUIET_LOG, cacheFile(), fingerprint);
+    for (File file : files) {
+      Option<List<Validation<EnforcerRuleException, File>>> cached = cache.lookup(file);
+      assertFalse(cached.isDefined());
+      cache.store(file, file.length(), file.lastModified(), results(file));
+    }
+    cache.save(QUIET_LOG);
+  }
+
+  private static List<Validation<EnforcerRuleException, File>> results(File file) {
+    if (file.getName().startsWith("Clean")) {
+      return List.of(valid(file));
+    }
+    return List.of(invalid(new Violation("patterns", file, 1, 0, null, "found TODO", "// TODO")));
+  }
+}
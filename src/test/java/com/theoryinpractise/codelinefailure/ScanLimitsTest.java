@@ -0,0 +1,98 @@
+package com.theoryinpractise.codelinefailure;
+
+import io.vavr.Function1;
+import io.vavr.collection.List;
+import io.vavr.control.Validation;
+
+import org.apache.maven.enforcer.rule.api.EnforcerRuleException;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.expectThrows;
+
+public class ScanLimitsTest extends TempDirectoryTest {
+  private static final String SOURCE = "package p;\n\nimport java.util.List;\n\npublic class Sample {\n}\n";
+
+  @Test
+  public void testSizeAndBinaryLimits() throws IOException {
+    ScanLimits limits = new ScanLimits(QUIET_LOG, 100, 50, true, 0);
+
+    SourceFile text = source("Sample.java", SOURCE.getBytes(StandardCharsets.UTF_8));
+    assertTrue(limits.isCheckable(text));
+    assertFalse(limits.isParseable(text.getFile()));
+    assertEquals(limits.parsed("checkPrivates", source -> List.of(Validation.valid(source.getFile()))).check(text), List.empty());
+    assertEquals(text.getImports().get(0).getName(), "java.util.List");
+    assertEquals(text.getText(), SOURCE);
+
+    byte[] binary = SOURCE.getBytes(StandardCharsets.UTF_8);
+    binary[20] = 0;
+    assertFalse(limits.isCheckable(source("Binary.java", binary)));
+    assertTrue(new ScanLimits(QUIET_LOG, 100, 50, false, 0).isCheckable(source("Binary.java", binary)));
+
+    assertFalse(limits.isCheckable(source("Large.java", new byte[101])));
+    assertTrue(new ScanLimits(QUIET_LOG, 0, 0, false, 0).isCheckable(source("Large.java", new byte[101])));
+
+    byte[] lateNul = new byte[SourceFile.BINARY_SNIFF_LENGTH * 4];
+    Arrays.fill(lateNul, (byte) ' ');
+    lateNul[SourceFile.BINARY_SNIFF_LENGTH] = 0;
+    assertFalse(source("LateNul.java", lateNul).isBinary(), "only the head of the file is sniffed");
+  }
+
+  @Test
+  public void testUnindexedFilesKeepUnusedMethodsFromFailingTheBuild() throws Exception {
+    write("src/p/Library.java", "package p;\n\npublic class Library {\n  public void helper() {}\n}\n");
+    StringBuilder large = new StringBuilder("package p;\n\npublic class Large {\n  void run() {\n");
+    for (int i = 0; i < 100; i++) {
+      large.append("    new Library().helper();\n");
+    }
+    write("src/p/Large.java", large.append("  }\n}\n").toString());
+
+    CodelineFailureRule rule = new CodelineFailureRule();
+    CodelineDaemon.configure(rule, "checkPrivates", "true");
+    CodelineDaemon.configure(rule, "projectWideUnused", "true");
+    CodelineDaemon.configure(rule, "cacheResults", "false");
+    CodelineDaemon.configure(rule, "maxParsedFileSize", "1000");
+    ReferenceIndex index = ReferenceIndex.load(QUIET_LOG, dir.resolve("references.index"), "test");
+    List<File> roots = List.of(dir.resolve("src").toFile());
+    Function1<File, List<Validation<EnforcerRuleException, File>>> process =
+        rule.prepare(QUIET_LOG, new ScanService(), roots, index);
+    process.apply(dir.resolve("src/p/Library.java").toFile());
+    process.apply(dir.resolve("src/p/Large.java").toFile());
+
+    assertEquals(index.unusedMethods().size(), 1, "helper() looks unused without the references in Large");
+    assertEquals(index.unusedMethods(QUIET_LOG), List.empty());
+
+    CodelineDaemon.configure(rule, "maxParsedFileSize", "0");
+    process = rule.prepare(QUIET_LOG, new ScanService(), roots, index);
+    process.apply(dir.resolve("src/p/Large.java").toFile());
+    assertEquals(
+        index.unusedMethods(QUIET_LOG).map(v -> ((Violation) v.getError()).getPath()).map(path -> new File(path).getName()),
+        List.of("Large.java"));
+  }
+
+  @Test
+  public void testTimeBudgetAbandonsParsing() throws IOException {
+    SourceFile source = source("Sample.java", SOURCE.getBytes(StandardCharsets.UTF_8));
+    source.startTimeBudget(0);
+    expectThrows(TimeBudgetExceededException.class, source::getCompilationUnit);
+
+    SourceFile withinBudget = source("Sample.java", SOURCE.getBytes(StandardCharsets.UTF_8));
+    withinBudget.startTimeBudget(60_000_000_000L);
+    assertTrue(withinBudget.getCompilationUnit().isPresent());
+  }
+
+  private SourceFile source(String name, byte[] content) throws IOException {
+    Path file = dir.resolve(name);
+    Files.write(file, content);
+    return new SourceFile(file.toFile());
+  }
+}
@@ -0,0 +1,46 @@
+package com.theoryinpractise.codelinefailure;
+
+import io.vavr.collection.List;
+
+import org.apache.maven.enforcer.rule.api.EnforcerRuleException;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static io.vavr.control.Validation.invalid;
+import static io.vavr.control.Validation.valid;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class ScanMetricsTest extends TempDirectoryTest {
+  @Test
+  public void testDisabledMetricsLeaveChecksUnwrapped() {
+    SourceCheck check = source -> List.of(valid(source.getFile()));
+    assertSame(ScanMetrics.DISABLED.timed("check", check), check);
+  }
+
+  @Test
+  public void testChecksAndFilesAreRecorded() throws IOException {
+    File file = write("Source.java", "class Source {}\n").toFile();
+    ScanMetrics metrics = ScanMetrics.start();
+    SourceCheck check = metrics.timed(
+        "banned \"things\"",
+        source -> List.of(invalid(new EnforcerRuleException("one")), invalid(new EnforcerRuleException("two"))));
+
+    SourceFile source = new SourceFile(file);
+    long start = System.nanoTime();
+    check.check(source);
+    metrics.fileScanned(source, start);
+    metrics.write(dir.resolve("metrics/metrics.json"));
+
+    String json = new String(Files.readAllBytes(dir.resolve("metrics/metrics.json")), StandardCharsets.UTF_8);
+    assertTrue(json.contains("\"files\": 1,"), json);
+    assertTrue(json.contains("\"bytes\": 16,"), json);
+    assertTrue(json.contains("\"banned \\\"things\\\"\": {\"millis\": "), json);
+    assertTrue(json.contains("\"violations\": 2}"), json);
+    assertTrue(json.contains("Source.java\", \"millis\": "), json);
+  }
+}
@@ -0,0 +1,136 @@
+package com.theoryinpractise.codelinefailure;
+
+import io.vavr.Function1;
+import io.vavr.collection.List;
+import io.vavr.control.Validation;
+
+import org.apache.maven.enforcer.rule.api.EnforcerRuleException;
+import org.apache.maven.execution.DefaultMavenExecutionRequest;
+import org.apache.maven.execution.DefaultMavenExecutionResult;
+import org.apache.maven.execution.MavenSession;
+import org.eclipse.aether.RepositorySystemSession;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static io.vavr.control.Validation.invalid;
+import static io.vavr.control.Validation.valid;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+public class ScanServiceTest {
+  @Test
+  public void testSessionCopiesShareAService() {
+    MavenSession session = new MavenSession(
+        null, (RepositorySystemSession) null, new DefaultMavenExecutionRequest(), new DefaultMavenExecutionResult());
+
+    ScanService service = ScanService.forSession(session);
+    assertSame(ScanService.forSession(session.clone()), service);
+    assertNotSame(ScanService.forSession(null), ScanService.forSession(null));
+
+    assertTrue(service.claimPreScan());
+    assertFalse(ScanService.forSession(session.clone()).claimPreScan());
+
+    AtomicInteger compilations = new AtomicInteger();
+    LinePatterns first = service.compiled("patterns\nfoo", () -> compile(compilations));
+    assertSame(service.compiled("patterns\nfoo", () -> compile(compilations)), first);
+    assertEquals(compilations.get(), 1);
+  }
+
+  @Test
+  public void testPreScannedResultsAreTakenOnce() {
+    ScanService service = new ScanService();
+    File module = new File("module");
+    File clean = new File(module, "Clean.java");
+    File dirty = new File(module, "Dirty.java");
+    AtomicInteger preScans = new AtomicInteger();
+    AtomicInteger scans = new AtomicInteger();
+
+    service.preScan(module, "config", Arrays.asList(clean, dirty), 2, check(preScans));
+    service.moduleStarted(module);
+    service.preScan(module, "config", Arrays.asList(new File(module, "Late.java")), 2, check(preScans));
+
+    Function1<File, List<Validation<EnforcerRuleException, File>>> process =
+        service.preScanned("config", check(scans), ScanMetrics.DISABLED);
+    assertTrue(process.apply(clean).head().isValid());
+    assertTrue(process.apply(dirty).head().isInvalid());
+    assertEquals(preScans.get(), 2);
+    assertEquals(scans.get(), 0);
+
+    process.apply(clean);
+    process.apply(new File(module, "Late.java"));
+    service.preScanned("other config", check(scans), ScanMetrics.DISABLED).apply(dirty);
+    assertEquals(preScans.get(), 2);
+    assertEquals(scans.get(), 3);
+  }
+
+  @Test
+  public void testUnclaimedResultsAreDroppedAndThePoolShutDown() throws InterruptedException {
+    ScanService service = new ScanService();
+    File module = new File("module");
+    File first = new File(module, "First.java");
+    CompletableFuture<Void> started = new CompletableFuture<>();
+    Semaphore release = new Semaphore(0);
+    AtomicInteger preScans = new AtomicInteger();
+    AtomicInteger scans = new AtomicInteger();
+
+    java.util.List<File> files = Arrays.asList(first, new File(module, "Second.java"), new File(module, "Third.java"));
+    service.preScan(module, "other config", files, 1, file -> {
+      started.complete(null);
+      // not a managed block, so the pool doesn't add a thread to start the next file meanwhile
+      release.acquireUninterruptibly();
+      return check(preScans).apply(file);
+    });
+    started.join();
+    service.moduleStarted(module);
+    service.moduleFinished(module);
+    release.release(files.size());
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+    while (service.preScanning() && System.nanoTime() < deadline) {
+      Thread.sleep(10);
+    }
+    assertFalse(service.preScanning(), "the pool is shut down once its queue drains");
+    assertEquals(preScans.get(), 1, "files not yet started are skipped");
+
+    service.preScanned("other config", check(scans), ScanMetrics.DISABLED).apply(first);
+    assertEquals(scans.get(), 1, "dropped results are not handed out");
+  }
+
+  @Test
+  public void testNothingQueuedStartsNoPool() {
+    ScanService service = new ScanService();
+    File module = new File("module");
+    AtomicInteger preScans = new AtomicInteger();
+
+    service.preScan(module, "config", Arrays.asList(), 2, check(preScans));
+    assertFalse(service.preScanning(), "an empty module starts no pool");
+
+    service.moduleStarted(module);
+    service.preScan(module, "config", Arrays.asList(new File(module, "Late.java")), 2, check(preScans));
+    assertFalse(service.preScanning(), "a module already started starts no pool");
+    assertEquals(preScans.get(), 0);
+  }
+
+  private static LinePatterns compile(AtomicInteger compilations) {
+    compilations.incrementAndGet();
+    return LinePatterns.compile(Arrays.asList("foo"));
+  }
+
+  private static Function1<File, List<Validation<EnforcerRuleException, File>>> check(AtomicInteger calls) {
+    return file -> {
+      calls.incrementAndGet();
+      return file.getName().startsWith("Dirty")
+          ? List.of(invalid(new Violation("patterns", file, 1, 0, null, "dirty", null)))
+          : List.of(valid(file));
+    };
+  }
+}
@@ -0,0 +1,66 @@
+package com.theoryinpractise.codelinefailure;
+
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+public class SourceFilterTest extends TempDirectoryTest {
+  @Test
+  public void testAntStyleGlobs() {
+    SourceFilter filter = SourceFilter.compile(
+        Arrays.asList("**/*.java", "META-INF/*.properties"), Arrays.asList("**/generated/**", "**/*Test?.java", "vendor/"));
+
+    assertTrue(filter.isIncluded(Paths.get("Root.java")));
+    assertTrue(filter.isIncluded(Paths.get("com/example/Deep.java")));
+    assertTrue(filter.isIncluded(Paths.get("META-INF/app.properties")));
+    assertFalse(filter.isIncluded(Paths.get("META-INF/nested/app.properties")));
+    assertFalse(filter.isIncluded(Paths.get("com/example/notes.txt")));
+    assertFalse(filter.isIncluded(Paths.get("com/generated/Model.java")));
+    assertFalse(filter.isIncluded(Paths.get("com/example/ThingTest1.java")));
+    assertTrue(filter.isIncluded(Paths.get("com/example/ThingTest.java")));
+    assertFalse(filter.isIncluded(Paths.get("com/example/.Hidden.java")));
+    assertFalse(filter.isIncluded(Paths.get("com/example/Backup.java.orig")));
+
+    assertTrue(filter.isPruned(Paths.get("generated")));
+    assertTrue(filter.isPruned(Paths.get("com/generated")));
+    assertTrue(filter.isPruned(Paths.get("vendor")));
+    assertFalse(filter.isPruned(Paths.get("com/vendor")));
+    assertFalse(filter.isPruned(Paths.get("com/example")));
+  }
+
+  @Test
+  public void testExcludedDirectoriesAreNotWalked() throws IOException {
+    try {
+      for (String path : Arrays.asList(
+               "b/B.java", "a.java", "a/A.java", "a/notes.txt", "generated/big/Gen.java", "a/generated/Gen.java")) {
+        Path file = dir.resolve(path);
+        Files.createDirectories(file.getParent());
+        Files.createFile(file);
+      }
+      Path unreadable = Files.createDirectories(dir.resolve("generated/locked"));
+      unreadable.toFile().setReadable(false);
+
+      SourceFilter filter = SourceFilter.compile(Collections.emptyList(), Collections.singletonList("**/generated/"));
+      List<String> walked = CodelineFailureRule.walkFiles(QUIET_LOG, dir.toFile(), "test", filter)
+                                .stream()
+                                .map(file -> dir.relativize(file.toPath()).toString().replace(File.separatorChar, '/'))
+                                .collect(Collectors.toList());
+
+      assertEquals(walked, Arrays.asList("a/A.java", "a.java", "b/B.java"));
+    } finally {
+      dir.resolve("generated/locked").toFile().setReadable(true);
+    }
+  }
+}
@@ -0,0 +1,83 @@
+package com.theoryinpractise.codelinefailure;
+
+import io.vavr.collection.List;
+
+import org.testng.annotations.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.testng.Assert.assertEquals;
+
+public class StructuralRulesTest extends TempDirectoryTest {
+  private static final String SAMPLE =
+      "import java.sql.Date;\n"
+          + "import java.util.*;\n"
+          + "import javax.annotation.Nullable;\n"
+          + "\n"
+          + "@Deprecated\n"
+          + "public class Sample {\n"
+          + "  private Date sqlDate;\n"
+          + "  private Vector<String> names;\n"
+          + "  private java.util.Date utilDate;\n"
+          + "\n"
+          + "  @javax.annotation.Nullable\n"
+          + "  public Object run(@Nullable Object o) {\n"
+          + "    System\n"
+          + "        .out\n"
+          + "        .println(new Date(0L));\n"
+          + "    System.err.println(new java.util.Date());\n"
+          + "    Objects.hash(new StringBuffer(\"sb\"));\n"
+          + "    return java.util.Objects.hash(o);\n"
+          + "  }\n"
+          + "}\n";
+
+  @Test
+  public void testBannedMethodCalls() throws IOException {
+    assertEquals(
+        violations(StructuralRules.compile(
+            Arrays.asList("System.out.println", "java.util.Objects.hash"), empty(), empty(), empty())),
+        List.of("bannedMethodCalls:13:5", "bannedMethodCalls:17:5", "bannedMethodCalls:18:12"));
+    assertEquals(
+        violations(StructuralRules.compile(Arrays.asList("println"), empty(), empty(), empty())),
+        List.of("bannedMethodCalls:13:5", "bannedMethodCalls:16:5"));
+  }
+
+  @Test
+  public void testBannedTypesFollowImports() throws IOException {
+    java.util.List<String> utilDate = Collections.singletonList("java.util.Date");
+    assertEquals(
+        violations(StructuralRules.compile(empty(), utilDate, empty(), utilDate)),
+        List.of("bannedFieldTypes:9:3", "bannedConstructors:16:24"));
+    assertEquals(
+        violations(StructuralRules.compile(empty(), Arrays.asList("Date", "java.lang.StringBuffer"), empty(), empty())),
+        List.of("bannedConstructors:15:18", "bannedConstructors:16:24", "bannedConstructors:17:18"));
+    assertEquals(
+        violations(StructuralRules.compile(empty(), empty(), empty(), Arrays.asList("java.util.Vector"))),
+        List.of("bannedFieldTypes:8:3"));
+  }
+
+  @Test
+  public void testBannedAnnotations() throws IOException {
+    assertEquals(
+        violations(StructuralRules.compile(empty(), empty(), Arrays.asList("javax.annotation.Nullable", "Deprecated"), empty())),
+        List.of("bannedAnnotations:5:1", "bannedAnnotations:11:3", "bannedAnnotations:12:21"));
+  }
+
+  private List<String> violations(StructuralRules rules) throws IOException {
+    Path file = dir.resolve("Sample.java");
+    Files.write(file, SAMPLE.getBytes(StandardCharsets.UTF_8));
+    return rules.check(new SourceFile(file.toFile()))
+               .filter(v -> v.isInvalid())
+               .map(v -> (Violation) v.getError())
+               .map(v -> v.getRule() + ":" + v.getLine() + ":" + v.getColumn());
+  }
+
+  private static java.util.List<String> empty() {
+    return Collections.emptyList();
+  }
+}
@@ -0,0 +1,48 @@
+package com.theoryinpractise.codelinefailure;
+
+import org.apache.maven.monitor.logging.DefaultLog;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+/**
+ * Gives each test method a fresh temporary directory, deleted again afterwards, and a log that discards everything.
+ */
+public abstract class TempDirectoryTest {
+  static final Log QUIET_LOG = new DefaultLog(new ConsoleLogger(Logger.LEVEL_DISABLED, "test"));
+
+  protected Path dir;
+
+  @BeforeMethod
+  public void createDirectory() throws IOException {
+    dir = Files.createTempDirectory("codeline-" + getClass().getSimpleName());
+  }
+
+  @AfterMethod(alwaysRun = true)
+  public void deleteDirectory() throws IOException {
+    if (dir != null) {
+      try (Stream<Path> paths = Files.walk(dir)) {
+        paths.sorted(Comparator.reverseOrder()).map(Path::toFile).forEach(File::delete);
+      }
+    }
+  }
+
+  /**
+   * Writes {@code content} to {@code path} below the temporary directory, creating any missing parent directories.
+   */
+  Path write(String path, String content) throws IOException {
+    Path file = dir.resolve(path);
+    Files.createDirectories(file.getParent());
+    return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+  }
+}
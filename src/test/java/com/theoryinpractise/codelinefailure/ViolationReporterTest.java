@@ -0,0 +1,84 @@
+package com.theoryinpractise.codelinefailure;
+
+import io.vavr.collection.List;
+import io.vavr.control.Validation;
+
+import org.apache.maven.enforcer.rule.api.EnforcerRuleException;
+import org.testng.annotations.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static io.vavr.control.Validation.invalid;
+import static io.vavr.control.Validation.valid;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+public class ViolationReporterTest extends TempDirectoryTest {
+  @Test
+  public void testViolationsAreStreamedAndOnlyTheConsoleLimitKept() throws IOException {
+    File source = dir.resolve("src/main/java/Example.java").toFile();
+    File sarif = dir.resolve("target/report.sarif").toFile();
+    File jsonLines = dir.resolve("target/report.jsonl").toFile();
+
+    ViolationReporter reporter = ViolationReporter.open(QUIET_LOG, dir.toFile(), sarif, jsonLines, 2, "1.0");
+    reporter.retain(List.of(
+        valid(source),
+        invalid(new Violation("patterns", source, 3, 0, null, "first \"quoted\"", "System.out.println();")),
+        invalid(new Violation("classes", source, 1, 1, "Example.java", "second", "")),
+        invalid(new EnforcerRuleException("third"))));
+    reporter.close();
+
+    assertEquals(reporter.shown().map(v -> v.getError().getMessage()).mkString(","), "third,second");
+    assertEquals(reporter.total(), 3);
+
+    String sarifText = new String(Files.readAllBytes(sarif.toPath()), StandardCharsets.UTF_8);
+    assertTrue(sarifText.startsWith("{\n  \"version\": \"2.1.0\""), sarifText);
+    assertTrue(sarifText.contains("{\"uri\": \"src/main/java/Example.java\"}, \"region\": {\"startLine\": 3, "
+                                  + "\"snippet\": {\"text\": \"System.out.println();\"}}"), sarifText);
+    assertTrue(sarifText.contains("\"text\": \"first \\\"quoted\\\"\""), sarifText);
+    assertTrue(sarifText.endsWith("\n    ]\n  }]\n}\n"), sarifText);
+
+    java.util.List<String> lines = Files.readAllLines(jsonLines.toPath(), StandardCharsets.UTF_8);
+    assertEquals(lines.size(), 3);
+    assertEquals(
+        lines.get(1),
+        "{\"rule\": \"classes\", \"path\": \"src/main/java/Example.java\", \"line\": 1, \"column\": 1, "
+        + "\"message\": \"second\", \"snippet\": \"\"}");
+    assertEquals(
+        lines.get(2),
+        "{\"rule\": \"error\", \"path\": null, \"line\": 0, \"column\": 0, \"message\": \"third\", \"snippet\": null}");
+  }
+
+  @Test
+  public void testTheConsoleShowsTheFirstViolationsInPathOrderWhateverOrderTheyArrive() {
+    List<Validation<EnforcerRuleException, File>> violations = List.of(
+        invalid(new Violation("patterns", new File("B.java"), 2, 0, null, "b2", "")),
+        invalid(new Violation("patterns", new File("A.java"), 9, 0, null, "a9", "")),
+        invalid(new Violation("patterns", new File("B.java"), 1, 0, null, "b1", "")),
+        invalid(new Violation("classes", new File("A.java"), 9, 0, null, "a9 classes", "")),
+        invalid(new Violation("patterns", new File("A.java"), 3, 0, null, "a3", "")));
+
+    for (List<Validation<EnforcerRuleException, File>> arrival : List.of(violations, violations.reverse())) {
+      ViolationReporter reporter = ViolationReporter.writingTo(QUIET_LOG, dir.toFile(), null, null, 3, "1.0");
+      arrival.grouped(2).forEach(reporter::retain);
+      reporter.close();
+
+      assertEquals(reporter.shown().map(v -> v.getError().getMessage()).mkString(","), "a3,a9 classes,a9");
+      assertEquals(reporter.total(), 5);
+    }
+  }
+
+  @Test
+  public void testViolationsCarryNoStackTraceAndShortSnippets() {
+    StringBuilder longLine = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      longLine.append('x');
+    }
+    Violation violation = new Violation("patterns", new File("A.java"), 1, 0, null, "message", longLine.toString());
+    assertEquals(violation.getStackTrace().length, 0);
+    assertEquals(violation.getSnippet().length(), Violation.MAX_SNIPPET_LENGTH + 3);
+  }
+}